@@ -55,6 +55,7 @@ public abstract class AbstractTransportRest
         // _mapper.enable( DeserializationFeature.UNWRAP_ROOT_VALUE );
         _mapper.disable( DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES );
         // _mapper.enable( SerializationFeature.WRAP_ROOT_VALUE );
+        JsonMapperCache.registerOptimizerModule( _mapper );
     }
 
     /**
@@ -0,0 +1,445 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.rs.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.paris.lutece.plugins.identityquality.v3.web.service.ApiManagerResponseStatusValidator;
+import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.util.httpaccess.HttpAccess;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JVM-wide registry of API Manager tokens.<br>
+ * Tokens are shared by all the transports using the same API Manager end point and credentials, and are renewed in background before they expire, so that
+ * requests do not wait for authentication.
+ */
+public final class ApiManagerTokenRegistry
+{
+    /** The Constant PARAMS_ACCES_TOKEN. */
+    private static final String PARAMS_ACCES_TOKEN = "access_token";
+    private static final String PARAMS_EXPIRES_IN = "expires_in";
+    private static final String TYPE_AUTHENTIFICATION_BASIC = "Basic";
+
+    /** The Constant PARAMS_GRANT_TYPE. */
+    private static final String PARAMS_GRANT_TYPE = "grant_type";
+
+    /** The Constant PARAMS_GRANT_TYPE_VALUE. */
+    private static final String PARAMS_GRANT_TYPE_VALUE = "client_credentials";
+
+    /** Proportion of the token validity after which it is renewed in background */
+    private static final double REFRESH_RATIO = 0.8;
+
+    /** Delay before retrying a failed background refresh, in seconds */
+    private static final long REFRESH_RETRY_DELAY = 10;
+
+    private static final String THREAD_NAME = "identityquality-token-refresher";
+
+    private static final ObjectMapper _objectMapper = new ObjectMapper( );
+
+    private static ApiManagerTokenRegistry instance;
+
+    private final Map<TokenKey, TokenEntry> _mapEntries = new ConcurrentHashMap<>( );
+    private final HttpAccess _httpClient = new HttpAccess( ApiManagerResponseStatusValidator.getInstance( ) );
+    private final ScheduledExecutorService _refresher;
+
+    /** statistics */
+    private final AtomicLong _lRefreshCount = new AtomicLong( );
+    private final AtomicLong _lRefreshFailureCount = new AtomicLong( );
+    private final AtomicLong _lRefreshTotalLatency = new AtomicLong( );
+    private final AtomicLong _lRefreshMaxLatency = new AtomicLong( );
+
+    public static synchronized ApiManagerTokenRegistry getInstance( )
+    {
+        if ( instance == null )
+        {
+            instance = new ApiManagerTokenRegistry( );
+        }
+        return instance;
+    }
+
+    private ApiManagerTokenRegistry( )
+    {
+        _refresher = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            final Thread thread = new Thread( runnable, THREAD_NAME );
+            thread.setDaemon( true );
+            return thread;
+        } );
+    }
+
+    /**
+     * Gets a valid token for the given API Manager end point and credentials. The token is fetched only if no valid token is available, and only one thread
+     * fetches it, the others wait for it and share the result.
+     * 
+     * @param strEndPointUrl
+     *            the API Manager token end point
+     * @param strCredentials
+     *            the API Manager credentials
+     * @param nExpirationMargin
+     *            the number of seconds before its actual expiration from which a token is no longer used
+     * @return the token
+     * @throws IdentityStoreException
+     */
+    public String getToken( final String strEndPointUrl, final String strCredentials, final int nExpirationMargin ) throws IdentityStoreException
+    {
+        final TokenEntry entry = _mapEntries.computeIfAbsent( new TokenKey( strEndPointUrl, strCredentials ),
+                key -> new TokenEntry( key, nExpirationMargin ) );
+        entry._bUsed = true;
+
+        AccessToken accessToken = entry._accessToken;
+        if ( accessToken != null && !accessToken.isExpired( ) )
+        {
+            return accessToken.getValue( );
+        }
+
+        synchronized( entry )
+        {
+            accessToken = entry._accessToken;
+            if ( accessToken == null || accessToken.isExpired( ) )
+            {
+                accessToken = refresh( entry );
+            }
+        }
+
+        return accessToken.getValue( );
+    }
+
+    /**
+     * Drops a token rejected by the API, so that the next request fetches a new one. Nothing is done if the token has already been renewed in the meantime.
+     * 
+     * @param strEndPointUrl
+     *            the API Manager token end point
+     * @param strCredentials
+     *            the API Manager credentials
+     * @param strRejectedToken
+     *            the token rejected by the API
+     */
+    public void invalidateToken( final String strEndPointUrl, final String strCredentials, final String strRejectedToken )
+    {
+        final TokenEntry entry = _mapEntries.get( new TokenKey( strEndPointUrl, strCredentials ) );
+        if ( entry != null )
+        {
+            synchronized( entry )
+            {
+                final AccessToken accessToken = entry._accessToken;
+                if ( accessToken != null && Objects.equals( accessToken.getValue( ), strRejectedToken ) )
+                {
+                    entry._accessToken = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of tokens fetched from API Manager
+     */
+    public long getRefreshCount( )
+    {
+        return _lRefreshCount.get( );
+    }
+
+    /**
+     * @return the number of failed token requests
+     */
+    public long getRefreshFailureCount( )
+    {
+        return _lRefreshFailureCount.get( );
+    }
+
+    /**
+     * @return the mean duration of a token request, in milliseconds
+     */
+    public long getRefreshMeanLatency( )
+    {
+        final long lCount = _lRefreshCount.get( ) + _lRefreshFailureCount.get( );
+        return lCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis( _lRefreshTotalLatency.get( ) / lCount );
+    }
+
+    /**
+     * @return the longest duration of a token request, in milliseconds
+     */
+    public long getRefreshMaxLatency( )
+    {
+        return TimeUnit.NANOSECONDS.toMillis( _lRefreshMaxLatency.get( ) );
+    }
+
+    /**
+     * Fetches a new token for the entry, stores it and schedules its background renewal. Must be called while holding the entry lock.
+     * 
+     * @param entry
+     *            the entry
+     * @return the new token
+     * @throws IdentityStoreException
+     */
+    private AccessToken refresh( final TokenEntry entry ) throws IdentityStoreException
+    {
+        final long lStart = System.nanoTime( );
+        final AccessToken accessToken;
+        try
+        {
+            accessToken = fetchToken( entry );
+        }
+        catch( final IdentityStoreException e )
+        {
+            _lRefreshFailureCount.incrementAndGet( );
+            throw e;
+        }
+        finally
+        {
+            final long lLatency = System.nanoTime( ) - lStart;
+            _lRefreshTotalLatency.addAndGet( lLatency );
+            _lRefreshMaxLatency.accumulateAndGet( lLatency, Math::max );
+        }
+        _lRefreshCount.incrementAndGet( );
+
+        entry._accessToken = accessToken;
+        entry._bUsed = false;
+
+        if ( accessToken.getValidity( ) > 0 )
+        {
+            scheduleRefresh( entry, accessToken, (long) ( accessToken.getValidity( ) * REFRESH_RATIO ) );
+        }
+
+        return accessToken;
+    }
+
+    /**
+     * Schedules the background renewal of the token of the entry. The renewal is skipped if the token has been replaced in the meantime, or if it has not
+     * been used since it was fetched : it will be fetched again on demand.
+     * 
+     * @param entry
+     *            the entry
+     * @param accessToken
+     *            the token to renew
+     * @param lDelay
+     *            the delay, in milliseconds
+     */
+    private void scheduleRefresh( final TokenEntry entry, final AccessToken accessToken, final long lDelay )
+    {
+        _refresher.schedule( ( ) -> {
+            synchronized( entry )
+            {
+                if ( entry._accessToken != accessToken || !entry._bUsed )
+                {
+                    return;
+                }
+                try
+                {
+                    refresh( entry );
+                }
+                catch( final IdentityStoreException e )
+                {
+                    // the current token is still used until it expires
+                    if ( !accessToken.isExpired( ) )
+                    {
+                        scheduleRefresh( entry, accessToken, TimeUnit.SECONDS.toMillis( REFRESH_RETRY_DELAY ) );
+                    }
+                }
+            }
+        }, lDelay, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Gets the security token from API Manager
+     * 
+     * @param entry
+     *            the entry
+     * @return the token
+     * @throws IdentityStoreException
+     */
+    private AccessToken fetchToken( final TokenEntry entry ) throws IdentityStoreException
+    {
+        String strToken = StringUtils.EMPTY;
+        long lExpiresIn = 0;
+
+        Map<String, String> mapHeadersRequest = new HashMap<String, String>( );
+        Map<String, String> mapParams = new HashMap<String, String>( );
+
+        mapParams.put( PARAMS_GRANT_TYPE, PARAMS_GRANT_TYPE_VALUE );
+
+        mapHeadersRequest.put( HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON );
+        mapHeadersRequest.put( HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_FORM_URLENCODED );
+        mapHeadersRequest.put( HttpHeaders.AUTHORIZATION, TYPE_AUTHENTIFICATION_BASIC + " " + entry._key._strCredentials );
+
+        final Map<String, String> mapHeadersResponse = new HashMap<>( );
+        String strOutput = StringUtils.EMPTY;
+
+        try
+        {
+            strOutput = this._httpClient.doPost( entry._key._strEndPointUrl, mapParams, null, null, mapHeadersRequest, mapHeadersResponse );
+        }
+        catch( Exception e )
+        {
+            handleException( e );
+        }
+
+        JsonNode strResponseApiManagerJsonObject = null;
+
+        try
+        {
+            strResponseApiManagerJsonObject = _objectMapper.readTree( strOutput );
+
+            if ( ( strResponseApiManagerJsonObject != null ) && strResponseApiManagerJsonObject.has( PARAMS_ACCES_TOKEN ) )
+            {
+                strToken = strResponseApiManagerJsonObject.get( PARAMS_ACCES_TOKEN ).asText( );
+
+                if ( strResponseApiManagerJsonObject.has( PARAMS_EXPIRES_IN ) )
+                {
+                    lExpiresIn = strResponseApiManagerJsonObject.get( PARAMS_EXPIRES_IN ).asLong( );
+                }
+            }
+        }
+        catch( JsonProcessingException e )
+        {
+            handleException( e );
+        }
+
+        // A token without lifetime, or whose lifetime is shorter than the margin, is never reused
+        final long lValidity = StringUtils.isNotBlank( strToken ) ? Math.max( lExpiresIn - entry._nExpirationMargin, 0 ) : 0;
+        return new AccessToken( strToken, TimeUnit.SECONDS.toMillis( lValidity ) );
+    }
+
+    /**
+     * add error log and throw correct Exception depending on the specified Exception
+     * 
+     * @param e
+     *            root exception
+     * @throws IdentityStoreException
+     */
+    private void handleException( Exception e ) throws IdentityStoreException
+    {
+        String strError = "LibraryIdentityStore - Error ApiManagerTokenRegistry :";
+        AppLogService.error( strError + e.getMessage( ), e );
+
+        throw new IdentityStoreException( strError, e );
+    }
+
+    /**
+     * Registry key : API Manager end point and credentials
+     */
+    private static final class TokenKey
+    {
+        private final String _strEndPointUrl;
+        private final String _strCredentials;
+
+        TokenKey( final String strEndPointUrl, final String strCredentials )
+        {
+            _strEndPointUrl = strEndPointUrl;
+            _strCredentials = strCredentials;
+        }
+
+        @Override
+        public boolean equals( final Object o )
+        {
+            if ( this == o )
+            {
+                return true;
+            }
+            if ( !( o instanceof TokenKey ) )
+            {
+                return false;
+            }
+            final TokenKey other = (TokenKey) o;
+            return Objects.equals( _strEndPointUrl, other._strEndPointUrl ) && Objects.equals( _strCredentials, other._strCredentials );
+        }
+
+        @Override
+        public int hashCode( )
+        {
+            return Objects.hash( _strEndPointUrl, _strCredentials );
+        }
+    }
+
+    /**
+     * Registry entry : current token of a key
+     */
+    private static final class TokenEntry
+    {
+        private final TokenKey _key;
+        private final int _nExpirationMargin;
+        private volatile AccessToken _accessToken;
+        private volatile boolean _bUsed;
+
+        TokenEntry( final TokenKey key, final int nExpirationMargin )
+        {
+            _key = key;
+            _nExpirationMargin = nExpirationMargin;
+        }
+    }
+
+    /**
+     * API Manager token, with its expiration time
+     */
+    private static final class AccessToken
+    {
+        private final String _strValue;
+        private final long _lValidity;
+        private final long _lExpirationTime;
+
+        AccessToken( final String strValue, final long lValidity )
+        {
+            _strValue = strValue;
+            _lValidity = lValidity;
+            _lExpirationTime = System.currentTimeMillis( ) + lValidity;
+        }
+
+        String getValue( )
+        {
+            return _strValue;
+        }
+
+        long getValidity( )
+        {
+            return _lValidity;
+        }
+
+        boolean isExpired( )
+        {
+            return System.currentTimeMillis( ) >= _lExpirationTime;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.rs.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of the compression of the request and response bodies of a transport : size of the bodies, and size actually sent or received.
+ */
+public class CompressionStatistics
+{
+    private final LongAdder _requestBytes = new LongAdder( );
+    private final LongAdder _requestWireBytes = new LongAdder( );
+    private final LongAdder _responseBytes = new LongAdder( );
+    private final LongAdder _responseWireBytes = new LongAdder( );
+
+    /**
+     * Records a request body
+     * 
+     * @param lBytes
+     *            the size of the body
+     * @param lWireBytes
+     *            the size actually sent
+     */
+    void addRequest( final long lBytes, final long lWireBytes )
+    {
+        _requestBytes.add( lBytes );
+        _requestWireBytes.add( lWireBytes );
+    }
+
+    /**
+     * @param in
+     *            a response body, as received
+     * @return the stream, counting the received bytes
+     */
+    InputStream countResponseWire( final InputStream in )
+    {
+        return new CountingInputStream( in, _responseWireBytes );
+    }
+
+    /**
+     * @param in
+     *            a response body, decompressed
+     * @return the stream, counting the decompressed bytes
+     */
+    InputStream countResponse( final InputStream in )
+    {
+        return new CountingInputStream( in, _responseBytes );
+    }
+
+    /**
+     * @return the total size of the request bodies, before compression
+     */
+    public long getRequestBytes( )
+    {
+        return _requestBytes.sum( );
+    }
+
+    /**
+     * @return the total size of the request bodies actually sent
+     */
+    public long getRequestWireBytes( )
+    {
+        return _requestWireBytes.sum( );
+    }
+
+    /**
+     * @return the total size of the response bodies, after decompression
+     */
+    public long getResponseBytes( )
+    {
+        return _responseBytes.sum( );
+    }
+
+    /**
+     * @return the total size of the response bodies actually received
+     */
+    public long getResponseWireBytes( )
+    {
+        return _responseWireBytes.sum( );
+    }
+
+    /**
+     * @return the compression ratio of the request bodies (size before compression / size sent), 1 if nothing was sent
+     */
+    public double getRequestCompressionRatio( )
+    {
+        return ratio( getRequestBytes( ), getRequestWireBytes( ) );
+    }
+
+    /**
+     * @return the compression ratio of the response bodies (size after decompression / size received), 1 if nothing was received
+     */
+    public double getResponseCompressionRatio( )
+    {
+        return ratio( getResponseBytes( ), getResponseWireBytes( ) );
+    }
+
+    private static double ratio( final long lBytes, final long lWireBytes )
+    {
+        return lWireBytes == 0 ? 1 : (double) lBytes / lWireBytes;
+    }
+
+    /**
+     * Stream adding the number of bytes read to a counter
+     */
+    private static final class CountingInputStream extends FilterInputStream
+    {
+        private final LongAdder _counter;
+
+        CountingInputStream( final InputStream in, final LongAdder counter )
+        {
+            super( in );
+            _counter = counter;
+        }
+
+        @Override
+        public int read( ) throws IOException
+        {
+            final int nByte = super.read( );
+            if ( nByte >= 0 )
+            {
+                _counter.increment( );
+            }
+            return nByte;
+        }
+
+        @Override
+        public int read( final byte [ ] b, final int off, final int len ) throws IOException
+        {
+            final int nRead = super.read( b, off, len );
+            if ( nRead > 0 )
+            {
+                _counter.add( nRead );
+            }
+            return nRead;
+        }
+
+        @Override
+        public long skip( final long n ) throws IOException
+        {
+            final long lSkipped = super.skip( n );
+            _counter.add( lSkipped );
+            return lSkipped;
+        }
+    }
+}
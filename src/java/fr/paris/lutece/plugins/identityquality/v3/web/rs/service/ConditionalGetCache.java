@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.rs.service;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.ws.rs.core.HttpHeaders;
+
+import fr.paris.lutece.plugins.identityquality.v3.web.service.ResponseCopier;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.ResponseDto;
+
+/**
+ * Bounded cache of the GET responses carrying validators (<code>ETag</code>, <code>Last-Modified</code>), so that they can be revalidated with a conditional
+ * request and reused when the server answers <code>304 Not Modified</code>. The least recently used entries are evicted first. The cache keeps its own copy
+ * of each response, and hands out copies of it.
+ */
+final class ConditionalGetCache
+{
+    private final Map<String, Entry> _mapEntries;
+
+    /**
+     * Constructor
+     * 
+     * @param nMaxEntries
+     *            the maximum number of entries
+     */
+    ConditionalGetCache( final int nMaxEntries )
+    {
+        _mapEntries = Collections.synchronizedMap( new LinkedHashMap<String, Entry>( 16, 0.75f, true )
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry( final Map.Entry<String, Entry> eldest )
+            {
+                return size( ) > nMaxEntries;
+            }
+        } );
+    }
+
+    /**
+     * @param strKey
+     *            the key of the request
+     * @return the cached entry, or null
+     */
+    Entry get( final String strKey )
+    {
+        return _mapEntries.get( strKey );
+    }
+
+    /**
+     * Caches a response if it carries validators
+     * 
+     * @param strKey
+     *            the key of the request
+     * @param strETag
+     *            the ETag header, or null
+     * @param strLastModified
+     *            the Last-Modified header, or null
+     * @param response
+     *            the deserialized response
+     */
+    void put( final String strKey, final String strETag, final String strLastModified, final ResponseDto response )
+    {
+        if ( response == null || ( strETag == null && strLastModified == null ) )
+        {
+            _mapEntries.remove( strKey );
+            return;
+        }
+        _mapEntries.put( strKey, new Entry( strETag, strLastModified, ResponseCopier.copy( response ) ) );
+    }
+
+    /**
+     * Cached response, with its validators
+     */
+    static final class Entry
+    {
+        private final String _strETag;
+        private final String _strLastModified;
+        private final ResponseDto _response;
+
+        Entry( final String strETag, final String strLastModified, final ResponseDto response )
+        {
+            _strETag = strETag;
+            _strLastModified = strLastModified;
+            _response = response;
+        }
+
+        /**
+         * Adds the conditional headers revalidating this entry
+         * 
+         * @param mapHeadersRequest
+         *            the request headers
+         */
+        void addConditionalHeaders( final Map<String, String> mapHeadersRequest )
+        {
+            if ( _strETag != null )
+            {
+                mapHeadersRequest.put( HttpHeaders.IF_NONE_MATCH, _strETag );
+            }
+            if ( _strLastModified != null )
+            {
+                mapHeadersRequest.put( HttpHeaders.IF_MODIFIED_SINCE, _strLastModified );
+            }
+        }
+
+        /**
+         * @param responseClass
+         *            the expected class
+         * @return a copy of the cached response, or null if it is not of the expected class
+         */
+        <T extends ResponseDto> T getResponse( final Class<T> responseClass )
+        {
+            return responseClass.isInstance( _response ) ? ResponseCopier.copy( responseClass.cast( _response ) ) : null;
+        }
+    }
+}
@@ -33,7 +33,6 @@
  */
 package fr.paris.lutece.plugins.identityquality.v3.web.rs.service;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -44,14 +43,11 @@ import javax.ws.rs.core.MediaType;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.hc.core5.net.URIBuilder;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import fr.paris.lutece.plugins.identityquality.v3.web.service.CustomResponseStatusValidator;
 import fr.paris.lutece.plugins.identitystore.v3.business.IHttpTransportProvider;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.ResponseDto;
-import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.error.ErrorResponse;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.util.Constants;
 import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
 import fr.paris.lutece.portal.service.util.AppLogService;
@@ -115,9 +111,9 @@ public class HttpAccessTransport implements IHttpTransportProvider
         {
             addAuthentication( mapHeadersRequest );
 
-            String strJSON = mapper.writeValueAsString( json );
+            String strJSON = JsonMapperCache.writeValueAsString( mapper, json );
             String strResponseJSON = this._httpClient.doPostJSON( strUrl, strJSON, mapHeadersRequest, mapHeadersResponse );
-            oResponse = mapJson( mapper, strResponseJSON, responseJsonClass );
+            oResponse = JsonResponseMapper.mapJson( mapper, strResponseJSON, responseJsonClass );
         }
         catch( Exception e )
         {
@@ -146,9 +142,9 @@ public class HttpAccessTransport implements IHttpTransportProvider
         {
             addAuthentication( mapHeadersRequest );
 
-            String strJSON = mapper.writeValueAsString( json );
+            String strJSON = JsonMapperCache.writeValueAsString( mapper, json );
             String strResponseJSON = this._httpClient.doPutJSON( strUrl, strJSON, mapHeadersRequest, mapHeadersResponse );
-            oResponse = mapJson( mapper, strResponseJSON, responseJsonClass );
+            oResponse = JsonResponseMapper.mapJson( mapper, strResponseJSON, responseJsonClass );
         }
         catch( Exception e )
         {
@@ -177,9 +173,9 @@ public class HttpAccessTransport implements IHttpTransportProvider
         {
             addAuthentication( mapHeadersRequest );
 
-            String strJSON = mapper.writeValueAsString( json );
+            String strJSON = JsonMapperCache.writeValueAsString( mapper, json );
             String strResponseJSON = this._httpClient.doPostJSON( strUrl, strJSON, mapHeadersRequest, mapHeadersResponse );
-            oResponse = mapJsonList( mapper, strResponseJSON, responseJsonClass );
+            oResponse = JsonResponseMapper.mapJsonList( mapper, strResponseJSON, responseJsonClass );
         }
         catch( Exception e )
         {
@@ -209,7 +205,7 @@ public class HttpAccessTransport implements IHttpTransportProvider
 
             addAuthentication( mapHeadersRequest );
             String strResponseJSON = this._httpClient.doGet( uriBuilder.toString( ), null, null, mapHeadersRequest );
-            oResponse = mapJson( mapper, strResponseJSON, responseJsonClass );
+            oResponse = JsonResponseMapper.mapJson( mapper, strResponseJSON, responseJsonClass );
         }
         catch( Exception e )
         {
@@ -239,7 +235,7 @@ public class HttpAccessTransport implements IHttpTransportProvider
 
             addAuthentication( mapHeadersRequest );
             String strResponseJSON = this._httpClient.doDelete( uriBuilder.toString( ), null, null, mapHeadersRequest, null );
-            oResponse = mapJson( mapper, strResponseJSON, responseJsonClass );
+            oResponse = JsonResponseMapper.mapJson( mapper, strResponseJSON, responseJsonClass );
         }
         catch( Exception e )
         {
@@ -272,9 +268,9 @@ public class HttpAccessTransport implements IHttpTransportProvider
             }
 
             addAuthentication( mapHeadersRequest );
-            String strJSON = mapper.writeValueAsString( json );
+            String strJSON = JsonMapperCache.writeValueAsString( mapper, json );
             String strResponseJSON = this._httpClient.doDeleteJSON( uriBuilder.toString( ), strJSON, null, null, mapHeadersRequest, null );
-            oResponse = mapJson( mapper, strResponseJSON, responseJsonClass );
+            oResponse = JsonResponseMapper.mapJson( mapper, strResponseJSON, responseJsonClass );
         }
         catch( Exception e )
         {
@@ -332,92 +328,4 @@ public class HttpAccessTransport implements IHttpTransportProvider
 
         return _strEndPoint;
     }
-
-    /**
-     * Converts json String response to the desired {@link ResponseDto} subclass instance.
-     *
-     * @param mapper
-     *            the mapper
-     * @param jsonStr
-     *            the json string value
-     * @param responseClass
-     *            the desired {@link ResponseDto} subclass
-     * @return the desired {@link ResponseDto} subclass instance
-     */
-    private <T extends ResponseDto> T mapJson( final ObjectMapper mapper, final String jsonStr, final Class<T> responseClass )
-            throws JsonProcessingException, InstantiationException, IllegalAccessException
-    {
-        T response = null;
-        try
-        {
-            response = mapper.readValue( jsonStr, responseClass );
-        }
-        catch( final Exception e )
-        {
-            // If mapper didn't manage to map the json with the desired class, we try to map it as an error response
-            final ErrorResponse er = mapper.readValue( jsonStr, ErrorResponse.class );
-            if ( er != null )
-            {
-                // If it is an error response, we need to convert it to the desired response class
-                response = responseClass.newInstance( );
-                response.setStatus( er.getStatus( ) );
-            }
-        }
-        return response;
-    }
-
-    /**
-     * Converts json String response to a {@link List} of the desired {@link ResponseDto} subclass instances.
-     *
-     * @param mapper
-     *            the mapper
-     * @param jsonStr
-     *            the json string value
-     * @param responseClass
-     *            the desired {@link ResponseDto} subclass
-     * @return a {@link List} of the desired {@link ResponseDto} subclass instances
-     */
-    private <T extends ResponseDto> List<T> mapJsonList( final ObjectMapper mapper, final String jsonStr, final Class<T> responseClass )
-            throws JsonProcessingException, InstantiationException, IllegalAccessException
-    {
-        List<T> responseList = new ArrayList<>( );
-        JavaType responseListClassType = mapper.getTypeFactory( ).constructCollectionType( List.class, responseClass );
-        try
-        {
-            responseList = mapper.readValue( jsonStr, responseListClassType );
-        }
-        catch( final Exception e1 )
-        {
-            try
-            {
-                // If mapper didn't manage to map the json with the desired class, we try to map it as a list of error response
-                responseListClassType = mapper.getTypeFactory( ).constructCollectionType( List.class, ErrorResponse.class );
-                final List<ErrorResponse> errorResponseList = mapper.readValue( jsonStr, responseListClassType );
-                if ( errorResponseList != null && !errorResponseList.isEmpty( ) )
-                {
-                    // If it is an error responseList, we need to convert it to the desired responseList class
-                    for ( final ErrorResponse er : errorResponseList )
-                    {
-                        final T response = responseClass.newInstance( );
-                        response.setStatus( er.getStatus( ) );
-                        responseList.add( response );
-                    }
-                }
-            }
-            catch( final Exception e2 )
-            {
-                // If mapper didn't manage to map the json with a list of error response, we try to map it as single error response
-                final ErrorResponse er = mapper.readValue( jsonStr, ErrorResponse.class );
-                if ( er != null )
-                {
-                    // If it is an error responseList, we need to convert it to the desired responseList class
-                    final T response = responseClass.newInstance( );
-                    response.setStatus( er.getStatus( ) );
-                    responseList.add( response );
-                }
-            }
-        }
-        return responseList;
-    }
-
 }
@@ -33,15 +33,17 @@
  */
 package fr.paris.lutece.plugins.identityquality.v3.web.rs.service;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.paris.lutece.plugins.identityquality.v3.web.service.ApiManagerResponseStatusValidator;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.ResponseDto;
 import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+import fr.paris.lutece.util.httpaccess.HttpAccess;
+import fr.paris.lutece.util.httpaccess.InvalidResponseStatus;
 import org.apache.commons.lang3.StringUtils;
 
 import javax.ws.rs.core.HttpHeaders;
-import javax.ws.rs.core.MediaType;
-import java.util.HashMap;
+import javax.ws.rs.core.Response;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -49,23 +51,26 @@ import java.util.Map;
  */
 public final class HttpApiManagerAccessTransport extends HttpAccessTransport
 {
-    /** The Constant PARAMS_ACCES_TOKEN. */
-    private static final String PARAMS_ACCES_TOKEN = "access_token";
-    private static final String TYPE_AUTHENTIFICATION_BASIC = "Basic";
     private static final String TYPE_AUTHENTIFICATION_BEARER = "Bearer";
 
-    /** The Constant PARAMS_GRANT_TYPE. */
-    private static final String PARAMS_GRANT_TYPE = "grant_type";
-
-    /** The Constant PARAMS_GRANT_TYPE_VALUE. */
-    private static final String PARAMS_GRANT_TYPE_VALUE = "client_credentials";
-
-    private static final ObjectMapper _objectMapper = new ObjectMapper( );
+    /** Default number of seconds before the token expiration from which it is renewed */
+    private static final int DEFAULT_TOKEN_EXPIRATION_MARGIN = 30;
 
     /** URL for REST service apiManager */
     private String _strAccessManagerEndPointUrl;
     private String _strAccessManagerCredentials;
 
+    private int _nTokenExpirationMargin = DEFAULT_TOKEN_EXPIRATION_MARGIN;
+
+    /**
+     * Simple Constructor
+     */
+    public HttpApiManagerAccessTransport( )
+    {
+        super( );
+        this._httpClient = new HttpAccess( ApiManagerResponseStatusValidator.getInstance( ) );
+    }
+
     /**
      * setter of apiManagerEndPoint
      * 
@@ -89,68 +94,166 @@ public final class HttpApiManagerAccessTransport extends HttpAccessTransport
     }
 
     /**
-     * Gets the security token from API Manager
+     * Sets the safety margin applied to the token lifetime : the token is renewed this number of seconds before its actual expiration
+     * 
+     * @param nTokenExpirationMargin
+     *            the margin, in seconds
+     */
+    public void setTokenExpirationMargin( int nTokenExpirationMargin )
+    {
+        this._nTokenExpirationMargin = nTokenExpirationMargin;
+    }
+
+    /**
+     * Gets a valid security token, shared with the other transports using the same API Manager
      * 
      * @return the token
      * @throws IdentityStoreException
      */
     private String getToken( ) throws IdentityStoreException
     {
-        String strToken = StringUtils.EMPTY;
+        return ApiManagerTokenRegistry.getInstance( ).getToken( _strAccessManagerEndPointUrl, _strAccessManagerCredentials, _nTokenExpirationMargin );
+    }
 
-        Map<String, String> mapHeadersRequest = new HashMap<String, String>( );
-        Map<String, String> mapParams = new HashMap<String, String>( );
+    /**
+     * {@inheritDoc}
+     * 
+     * @throws IdentityStoreException
+     */
+    @Override
+    protected void addAuthentication( Map<String, String> mapHeadersRequest ) throws IdentityStoreException
+    {
+        String strToken = getToken( );
 
-        mapParams.put( PARAMS_GRANT_TYPE, PARAMS_GRANT_TYPE_VALUE );
+        if ( StringUtils.isNotBlank( strToken ) )
+        {
+            mapHeadersRequest.put( HttpHeaders.AUTHORIZATION, TYPE_AUTHENTIFICATION_BEARER + " " + strToken );
+        }
+    }
 
-        mapHeadersRequest.put( HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON );
-        mapHeadersRequest.put( HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_FORM_URLENCODED );
-        mapHeadersRequest.put( HttpHeaders.AUTHORIZATION, TYPE_AUTHENTIFICATION_BASIC + " " + _strAccessManagerCredentials );
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String doPost( String strUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest ) throws IdentityStoreException
+    {
+        return retryIfUnauthorized( ( ) -> super.doPost( strUrl, mapParams, mapHeadersRequest ) );
+    }
 
-        final Map<String, String> mapHeadersResponse = new HashMap<>( );
-        String strOutput = StringUtils.EMPTY;
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T extends ResponseDto> T doPostJSON( String strUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest, Object json,
+            Class<T> responseJsonClass, ObjectMapper mapper ) throws IdentityStoreException
+    {
+        return retryIfUnauthorized( ( ) -> super.doPostJSON( strUrl, mapParams, mapHeadersRequest, json, responseJsonClass, mapper ) );
+    }
 
-        try
-        {
-            strOutput = this._httpClient.doPost( _strAccessManagerEndPointUrl, mapParams, null, null, mapHeadersRequest, mapHeadersResponse );
-        }
-        catch( Exception e )
-        {
-            handleException( e );
-        }
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T extends ResponseDto> T doPutJSON( String strUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest, Object json,
+            Class<T> responseJsonClass, ObjectMapper mapper ) throws IdentityStoreException
+    {
+        return retryIfUnauthorized( ( ) -> super.doPutJSON( strUrl, mapParams, mapHeadersRequest, json, responseJsonClass, mapper ) );
+    }
 
-        JsonNode strResponseApiManagerJsonObject = null;
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T extends ResponseDto> List<T> doPostJSONforList( String strUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest, Object json,
+            Class<T> responseJsonClass, ObjectMapper mapper ) throws IdentityStoreException
+    {
+        return retryIfUnauthorized( ( ) -> super.doPostJSONforList( strUrl, mapParams, mapHeadersRequest, json, responseJsonClass, mapper ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T extends ResponseDto> T doGet( String strEndPointUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest,
+            Class<T> responseJsonClass, ObjectMapper mapper ) throws IdentityStoreException
+    {
+        return retryIfUnauthorized( ( ) -> super.doGet( strEndPointUrl, mapParams, mapHeadersRequest, responseJsonClass, mapper ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T extends ResponseDto> T doDelete( String strEndPointUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest,
+            Class<T> responseJsonClass, ObjectMapper mapper ) throws IdentityStoreException
+    {
+        return retryIfUnauthorized( ( ) -> super.doDelete( strEndPointUrl, mapParams, mapHeadersRequest, responseJsonClass, mapper ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T extends ResponseDto> T doDeleteJSON( String strEndPointUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest, Object json,
+            Class<T> responseJsonClass, ObjectMapper mapper ) throws IdentityStoreException
+    {
+        return retryIfUnauthorized( ( ) -> super.doDeleteJSON( strEndPointUrl, mapParams, mapHeadersRequest, json, responseJsonClass, mapper ) );
+    }
 
+    /**
+     * Executes the request, and if the API answers <code>401 Unauthorized</code>, drops the cached token and executes the request once more with a new one.
+     * 
+     * @param request
+     *            the request to execute
+     * @return the result of the request
+     * @throws IdentityStoreException
+     */
+    private <R> R retryIfUnauthorized( final TransportRequest<R> request ) throws IdentityStoreException
+    {
+        final String strToken = getToken( );
         try
         {
-            strResponseApiManagerJsonObject = _objectMapper.readTree( strOutput );
-
-            if ( ( strResponseApiManagerJsonObject != null ) && strResponseApiManagerJsonObject.has( PARAMS_ACCES_TOKEN ) )
-            {
-                strToken = strResponseApiManagerJsonObject.get( PARAMS_ACCES_TOKEN ).asText( );
-            }
+            return request.execute( );
         }
-        catch( JsonProcessingException e )
+        catch( final IdentityStoreException e )
         {
-            handleException( e );
+            if ( !isUnauthorized( e ) )
+            {
+                throw e;
+            }
         }
 
-        return strToken;
+        ApiManagerTokenRegistry.getInstance( ).invalidateToken( _strAccessManagerEndPointUrl, _strAccessManagerCredentials, strToken );
+        return request.execute( );
     }
 
     /**
-     * {@inheritDoc}
+     * Checks whether the exception was caused by a <code>401 Unauthorized</code> response
      * 
-     * @throws IdentityStoreException
+     * @param e
+     *            the exception
+     * @return true if the API answered 401
      */
-    @Override
-    protected void addAuthentication( Map<String, String> mapHeadersRequest ) throws IdentityStoreException
+    private static boolean isUnauthorized( final Throwable e )
     {
-        String strToken = getToken( );
-
-        if ( StringUtils.isNotBlank( strToken ) )
+        Throwable cause = e;
+        while ( cause != null )
         {
-            mapHeadersRequest.put( HttpHeaders.AUTHORIZATION, TYPE_AUTHENTIFICATION_BEARER + " " + strToken );
+            if ( cause instanceof InvalidResponseStatus )
+            {
+                return ( (InvalidResponseStatus) cause ).getResponseStatus( ) == Response.Status.UNAUTHORIZED.getStatusCode( );
+            }
+            cause = cause.getCause( );
         }
+        return false;
+    }
+
+    /**
+     * A request on the transport
+     */
+    @FunctionalInterface
+    private interface TransportRequest<R>
+    {
+        R execute( ) throws IdentityStoreException;
     }
 }
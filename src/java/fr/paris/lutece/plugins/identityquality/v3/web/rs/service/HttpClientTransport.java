@@ -0,0 +1,647 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.rs.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.hc.core5.net.URIBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fr.paris.lutece.plugins.identityquality.v3.web.service.CustomResponseStatusValidator;
+import fr.paris.lutece.plugins.identitystore.v3.business.IHttpTransportProvider;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.ResponseDto;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.util.Constants;
+import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.util.httpaccess.InvalidResponseStatus;
+
+/**
+ * IHttpTransportProvider which uses the JDK HTTP client (requires Java 11).<br>
+ * Connections are kept alive and reused between requests, and HTTP/2 is negotiated when the server supports it, so that concurrent requests are multiplexed
+ * on a single connection.<br>
+ * Compressed responses (gzip, deflate) are accepted and decompressed as they are read. JSON request bodies can be gzipped from a configurable size.
+ */
+public class HttpClientTransport implements IHttpTransportProvider
+{
+    private static final long DEFAULT_CONNECT_TIMEOUT = 5000;
+    private static final long DEFAULT_REQUEST_TIMEOUT = 30000;
+    private static final String METHOD_DELETE = "DELETE";
+    private static final String ENCODING_GZIP = "gzip";
+    private static final String ENCODING_DEFLATE = "deflate";
+    private static final String ACCEPT_ENCODING_VALUE = ENCODING_GZIP + ", " + ENCODING_DEFLATE;
+    private static final int HTTP_NOT_MODIFIED = 304;
+
+    protected String _strEndPoint;
+    private long _lConnectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private long _lRequestTimeout = DEFAULT_REQUEST_TIMEOUT;
+    private boolean _bHttp2 = true;
+    private boolean _bResponseCompression = true;
+    private int _nRequestCompressionThreshold = -1;
+    private final CompressionStatistics _compressionStatistics = new CompressionStatistics( );
+    private volatile ConditionalGetCache _conditionalGetCache;
+
+    /** client, built on first use so that all the properties are set */
+    private volatile HttpClient _httpClient;
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @throws IdentityStoreException
+     */
+    @Override
+    public String doPost( String strUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest ) throws IdentityStoreException
+    {
+        mapHeadersRequest.put( HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_FORM_URLENCODED );
+
+        String strOutput = StringUtils.EMPTY;
+
+        try
+        {
+            addAuthentication( mapHeadersRequest );
+
+            final HttpRequest.Builder builder = newRequest( URI.create( strUrl ), mapHeadersRequest ).POST( HttpRequest.BodyPublishers.ofString( encodeForm( mapParams ) ) );
+            try ( InputStream in = send( builder ) )
+            {
+                strOutput = new String( in.readAllBytes( ), StandardCharsets.UTF_8 );
+            }
+        }
+        catch( Exception e )
+        {
+            handleException( e );
+        }
+
+        return strOutput;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @throws IdentityStoreException
+     */
+    @Override
+    public <T extends ResponseDto> T doPostJSON( String strUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest, Object json,
+            Class<T> responseJsonClass, ObjectMapper mapper ) throws IdentityStoreException
+    {
+        mapHeadersRequest.put( HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON );
+        mapHeadersRequest.put( HttpHeaders.CONTENT_TYPE, Constants.CONTENT_FORMAT_CHARSET );
+
+        T oResponse = null;
+
+        try
+        {
+            addAuthentication( mapHeadersRequest );
+
+            String strJSON = JsonMapperCache.writeValueAsString( mapper, json );
+            final HttpRequest.BodyPublisher body = encodeBody( strJSON, mapHeadersRequest );
+            final HttpRequest.Builder builder = newRequest( URI.create( strUrl ), mapHeadersRequest ).POST( body );
+            oResponse = JsonResponseMapper.mapJson( mapper, send( builder ), responseJsonClass );
+        }
+        catch( Exception e )
+        {
+            handleException( e );
+        }
+
+        return oResponse;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IdentityStoreException
+     */
+    @Override
+    public <T extends ResponseDto> T doPutJSON( String strUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest, Object json,
+            Class<T> responseJsonClass, ObjectMapper mapper ) throws IdentityStoreException
+    {
+        mapHeadersRequest.put( HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON );
+        mapHeadersRequest.put( HttpHeaders.CONTENT_TYPE, Constants.CONTENT_FORMAT_CHARSET );
+
+        T oResponse = null;
+
+        try
+        {
+            addAuthentication( mapHeadersRequest );
+
+            String strJSON = JsonMapperCache.writeValueAsString( mapper, json );
+            final HttpRequest.BodyPublisher body = encodeBody( strJSON, mapHeadersRequest );
+            final HttpRequest.Builder builder = newRequest( URI.create( strUrl ), mapHeadersRequest ).PUT( body );
+            oResponse = JsonResponseMapper.mapJson( mapper, send( builder ), responseJsonClass );
+        }
+        catch( Exception e )
+        {
+            handleException( e );
+        }
+
+        return oResponse;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @throws IdentityStoreException
+     */
+    @Override
+    public <T extends ResponseDto> List<T> doPostJSONforList( String strUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest, Object json,
+            Class<T> responseJsonClass, ObjectMapper mapper ) throws IdentityStoreException
+    {
+        mapHeadersRequest.put( HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON );
+        mapHeadersRequest.put( HttpHeaders.CONTENT_TYPE, Constants.CONTENT_FORMAT_CHARSET );
+
+        List<T> oResponse = null;
+
+        try
+        {
+            addAuthentication( mapHeadersRequest );
+
+            String strJSON = JsonMapperCache.writeValueAsString( mapper, json );
+            final HttpRequest.BodyPublisher body = encodeBody( strJSON, mapHeadersRequest );
+            final HttpRequest.Builder builder = newRequest( URI.create( strUrl ), mapHeadersRequest ).POST( body );
+            oResponse = JsonResponseMapper.mapJsonList( mapper, send( builder ), responseJsonClass );
+        }
+        catch( Exception e )
+        {
+            handleException( e );
+        }
+
+        return oResponse;
+    }
+
+    @Override
+    public <T extends ResponseDto> T doGet( String strEndPointUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest,
+            Class<T> responseJsonClass, ObjectMapper mapper ) throws IdentityStoreException
+    {
+        T oResponse = null;
+
+        try
+        {
+            final URI uri = buildUri( strEndPointUrl, mapParams );
+            final ConditionalGetCache conditionalGetCache = _conditionalGetCache;
+            final String strCacheKey = uri + "\n" + mapHeadersRequest.get( Constants.PARAM_CLIENT_CODE );
+            final ConditionalGetCache.Entry cached = conditionalGetCache != null ? conditionalGetCache.get( strCacheKey ) : null;
+            if ( cached != null )
+            {
+                cached.addConditionalHeaders( mapHeadersRequest );
+            }
+
+            addAuthentication( mapHeadersRequest );
+            final HttpResponse<InputStream> response = sendForResponse( newRequest( uri, mapHeadersRequest ).GET( ) );
+
+            final T cachedResponse = cached != null && response.statusCode( ) == HTTP_NOT_MODIFIED ? cached.getResponse( responseJsonClass ) : null;
+            if ( cachedResponse != null )
+            {
+                response.body( ).close( );
+                return cachedResponse;
+            }
+
+            oResponse = JsonResponseMapper.mapJson( mapper, decodeBody( response ), responseJsonClass );
+            if ( conditionalGetCache != null )
+            {
+                conditionalGetCache.put( strCacheKey, response.headers( ).firstValue( HttpHeaders.ETAG ).orElse( null ),
+                        response.headers( ).firstValue( HttpHeaders.LAST_MODIFIED ).orElse( null ), oResponse );
+            }
+        }
+        catch( Exception e )
+        {
+            handleException( e );
+        }
+
+        return oResponse;
+    }
+
+    @Override
+    public <T extends ResponseDto> T doDelete( String strEndPointUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest,
+            Class<T> responseJsonClass, ObjectMapper mapper ) throws IdentityStoreException
+    {
+        T oResponse = null;
+
+        try
+        {
+            addAuthentication( mapHeadersRequest );
+            final HttpRequest.Builder builder = newRequest( buildUri( strEndPointUrl, mapParams ), mapHeadersRequest ).DELETE( );
+            oResponse = JsonResponseMapper.mapJson( mapper, send( builder ), responseJsonClass );
+        }
+        catch( Exception e )
+        {
+            handleException( e );
+        }
+
+        return oResponse;
+    }
+
+    @Override
+    public <T extends ResponseDto> T doDeleteJSON( String strEndPointUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest, Object json,
+            Class<T> responseJsonClass, ObjectMapper mapper ) throws IdentityStoreException
+    {
+        mapHeadersRequest.put( HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON );
+        mapHeadersRequest.put( HttpHeaders.CONTENT_TYPE, Constants.CONTENT_FORMAT_CHARSET );
+
+        T oResponse = null;
+
+        try
+        {
+            addAuthentication( mapHeadersRequest );
+            String strJSON = JsonMapperCache.writeValueAsString( mapper, json );
+            final HttpRequest.BodyPublisher body = encodeBody( strJSON, mapHeadersRequest );
+            final HttpRequest.Builder builder = newRequest( buildUri( strEndPointUrl, mapParams ), mapHeadersRequest ).method( METHOD_DELETE, body );
+            oResponse = JsonResponseMapper.mapJson( mapper, send( builder ), responseJsonClass );
+        }
+        catch( Exception e )
+        {
+            handleException( e );
+        }
+
+        return oResponse;
+    }
+
+    /**
+     * Sends the request and returns the response body. Responses whose status is rejected by {@link CustomResponseStatusValidator} raise an
+     * {@link InvalidResponseStatus}, as with library-httpaccess.<br>
+     * The response is read as a stream, decompressed on the fly if needed, so that JSON responses are parsed as they arrive, without building the whole body
+     * as a String.
+     * 
+     * @param builder
+     *            the request
+     * @return the response body
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws InvalidResponseStatus
+     */
+    protected InputStream send( final HttpRequest.Builder builder ) throws IOException, InterruptedException, InvalidResponseStatus
+    {
+        return decodeBody( sendForResponse( builder ) );
+    }
+
+    /**
+     * Sends the request and returns the response, whose body is not decoded yet
+     * 
+     * @param builder
+     *            the request
+     * @return the response
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws InvalidResponseStatus
+     *             if the response status is rejected by {@link CustomResponseStatusValidator}
+     */
+    protected HttpResponse<InputStream> sendForResponse( final HttpRequest.Builder builder ) throws IOException, InterruptedException, InvalidResponseStatus
+    {
+        final HttpRequest request = builder.build( );
+        final HttpResponse<InputStream> response = getHttpClient( ).send( request, HttpResponse.BodyHandlers.ofInputStream( ) );
+
+        if ( !CustomResponseStatusValidator.getInstance( ).validate( response.statusCode( ) ) )
+        {
+            response.body( ).close( );
+            throw new InvalidResponseStatus( "Bad HTTP response status " + response.statusCode( ) + " for " + request.method( ) + " " + request.uri( ),
+                    response.statusCode( ), null );
+        }
+
+        return response;
+    }
+
+    /**
+     * Decompresses the response body according to its content encoding
+     * 
+     * @param response
+     *            the response
+     * @return the decompressed body
+     * @throws IOException
+     */
+    private InputStream decodeBody( final HttpResponse<InputStream> response ) throws IOException
+    {
+        final String strEncoding = response.headers( ).firstValue( HttpHeaders.CONTENT_ENCODING ).orElse( StringUtils.EMPTY ).trim( );
+        final boolean bCompressed = ENCODING_GZIP.equalsIgnoreCase( strEncoding ) || ENCODING_DEFLATE.equalsIgnoreCase( strEncoding );
+        final PushbackInputStream in = new PushbackInputStream( _compressionStatistics.countResponseWire( response.body( ) ) );
+
+        // an empty body (204, 304...) has no compression header to read, even with a content encoding
+        final int nFirstByte = bCompressed ? in.read( ) : 0;
+        if ( nFirstByte < 0 )
+        {
+            return _compressionStatistics.countResponse( in );
+        }
+        if ( bCompressed )
+        {
+            in.unread( nFirstByte );
+        }
+
+        if ( ENCODING_GZIP.equalsIgnoreCase( strEncoding ) )
+        {
+            return _compressionStatistics.countResponse( new GZIPInputStream( in ) );
+        }
+        if ( ENCODING_DEFLATE.equalsIgnoreCase( strEncoding ) )
+        {
+            return _compressionStatistics.countResponse( new InflaterInputStream( in ) );
+        }
+        return _compressionStatistics.countResponse( in );
+    }
+
+    /**
+     * Encodes a JSON request body, gzipped if it is larger than the compression threshold
+     * 
+     * @param strJSON
+     *            the JSON body
+     * @param mapHeadersRequest
+     *            the headers, to which the content encoding is added if the body is compressed
+     * @return the body
+     * @throws IOException
+     */
+    private HttpRequest.BodyPublisher encodeBody( final String strJSON, final Map<String, String> mapHeadersRequest ) throws IOException
+    {
+        final byte [ ] body = strJSON.getBytes( StandardCharsets.UTF_8 );
+        mapHeadersRequest.remove( HttpHeaders.CONTENT_ENCODING );
+
+        if ( _nRequestCompressionThreshold < 0 || body.length <= _nRequestCompressionThreshold )
+        {
+            _compressionStatistics.addRequest( body.length, body.length );
+            return HttpRequest.BodyPublishers.ofByteArray( body );
+        }
+
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream( body.length / 4 );
+        try ( GZIPOutputStream out = new GZIPOutputStream( compressed ) )
+        {
+            out.write( body );
+        }
+        _compressionStatistics.addRequest( body.length, compressed.size( ) );
+        mapHeadersRequest.put( HttpHeaders.CONTENT_ENCODING, ENCODING_GZIP );
+        return HttpRequest.BodyPublishers.ofByteArray( compressed.toByteArray( ) );
+    }
+
+    /**
+     * Creates a request builder with the request timeout and the given headers
+     * 
+     * @param uri
+     *            the request URI
+     * @param mapHeadersRequest
+     *            the headers
+     * @return the builder
+     */
+    private HttpRequest.Builder newRequest( final URI uri, final Map<String, String> mapHeadersRequest )
+    {
+        final HttpRequest.Builder builder = HttpRequest.newBuilder( uri ).timeout( Duration.ofMillis( _lRequestTimeout ) );
+        if ( _bResponseCompression )
+        {
+            builder.header( HttpHeaders.ACCEPT_ENCODING, ACCEPT_ENCODING_VALUE );
+        }
+        if ( mapHeadersRequest != null )
+        {
+            for ( Map.Entry<String, String> header : mapHeadersRequest.entrySet( ) )
+            {
+                builder.header( header.getKey( ), header.getValue( ) );
+            }
+        }
+        return builder;
+    }
+
+    /**
+     * Builds the request URI with its query parameters
+     * 
+     * @param strEndPointUrl
+     *            the URL
+     * @param mapParams
+     *            the query parameters
+     * @return the URI
+     * @throws java.net.URISyntaxException
+     */
+    private static URI buildUri( final String strEndPointUrl, final Map<String, String> mapParams ) throws java.net.URISyntaxException
+    {
+        URIBuilder uriBuilder = new URIBuilder( strEndPointUrl );
+
+        if ( ( mapParams != null ) && !mapParams.isEmpty( ) )
+        {
+            for ( String strParamKey : mapParams.keySet( ) )
+            {
+                uriBuilder.addParameter( strParamKey, mapParams.get( strParamKey ) );
+            }
+        }
+
+        return uriBuilder.build( );
+    }
+
+    /**
+     * Encodes the parameters as an URL encoded form
+     * 
+     * @param mapParams
+     *            the parameters
+     * @return the form body
+     * @throws UnsupportedEncodingException
+     */
+    private static String encodeForm( final Map<String, String> mapParams ) throws UnsupportedEncodingException
+    {
+        final StringJoiner form = new StringJoiner( "&" );
+        if ( mapParams != null )
+        {
+            for ( Map.Entry<String, String> param : mapParams.entrySet( ) )
+            {
+                form.add( URLEncoder.encode( param.getKey( ), StandardCharsets.UTF_8.name( ) ) + "="
+                        + URLEncoder.encode( param.getValue( ), StandardCharsets.UTF_8.name( ) ) );
+            }
+        }
+        return form.toString( );
+    }
+
+    /**
+     * @return the HTTP client, shared by all the requests of this transport
+     */
+    protected HttpClient getHttpClient( )
+    {
+        HttpClient httpClient = _httpClient;
+        if ( httpClient == null )
+        {
+            synchronized( this )
+            {
+                httpClient = _httpClient;
+                if ( httpClient == null )
+                {
+                    httpClient = HttpClient.newBuilder( ).version( _bHttp2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1 )
+                            .connectTimeout( Duration.ofMillis( _lConnectTimeout ) ).followRedirects( HttpClient.Redirect.NORMAL ).build( );
+                    _httpClient = httpClient;
+                }
+            }
+        }
+        return httpClient;
+    }
+
+    /**
+     * add error log and throw correct Exception depending on the specified Exception
+     * 
+     * @param e
+     *            root exception
+     * @throws IdentityStoreException
+     */
+    protected void handleException( Exception e ) throws IdentityStoreException
+    {
+        if ( e instanceof InterruptedException )
+        {
+            Thread.currentThread( ).interrupt( );
+        }
+
+        String strError = "LibraryIdentityStore - Error HttpClientTransport :";
+        AppLogService.error( strError + e.getMessage( ), e );
+
+        throw new IdentityStoreException( strError, e );
+    }
+
+    /**
+     * add specific authentication to request
+     * 
+     * @param mapHeadersRequest
+     *            map of headers to add
+     * @throws IdentityStoreException
+     */
+    protected void addAuthentication( Map<String, String> mapHeadersRequest ) throws IdentityStoreException
+    {
+        // default : no authentication
+    }
+
+    /**
+     * Sets the connection timeout
+     * 
+     * @param lConnectTimeout
+     *            the timeout, in milliseconds
+     */
+    public void setConnectTimeout( long lConnectTimeout )
+    {
+        _lConnectTimeout = lConnectTimeout;
+        _httpClient = null;
+    }
+
+    /**
+     * Sets the timeout of a whole request, until the response headers are received
+     * 
+     * @param lRequestTimeout
+     *            the timeout, in milliseconds
+     */
+    public void setRequestTimeout( long lRequestTimeout )
+    {
+        _lRequestTimeout = lRequestTimeout;
+    }
+
+    /**
+     * Enables or disables HTTP/2 (enabled by default). When disabled, only HTTP/1.1 keep-alive connections are used.
+     * 
+     * @param bHttp2
+     *            true to negotiate HTTP/2
+     */
+    public void setHttp2( boolean bHttp2 )
+    {
+        _bHttp2 = bHttp2;
+        _httpClient = null;
+    }
+
+    /**
+     * Enables or disables the compression of the responses (enabled by default) : when enabled, gzip and deflate encodings are accepted.
+     * 
+     * @param bResponseCompression
+     *            true to accept compressed responses
+     */
+    public void setResponseCompression( boolean bResponseCompression )
+    {
+        _bResponseCompression = bResponseCompression;
+    }
+
+    /**
+     * Sets the size from which JSON request bodies are gzipped. Request compression is disabled by default (negative threshold), as it must be supported by
+     * the server.
+     * 
+     * @param nRequestCompressionThreshold
+     *            the size, in bytes, or a negative value to never compress requests
+     */
+    public void setRequestCompressionThreshold( int nRequestCompressionThreshold )
+    {
+        _nRequestCompressionThreshold = nRequestCompressionThreshold;
+    }
+
+    /**
+     * Enables conditional GET : GET responses carrying an <code>ETag</code> or a <code>Last-Modified</code> header are cached, and revalidated with
+     * <code>If-None-Match</code> / <code>If-Modified-Since</code> on the next identical request. On <code>304 Not Modified</code>, the cached response is
+     * returned without reading nor parsing any body. Disabled by default; each caller gets its own copy of the cached response.
+     * 
+     * @param nConditionalGetCacheSize
+     *            the maximum number of cached responses, or 0 to disable conditional GET
+     */
+    public void setConditionalGetCacheSize( int nConditionalGetCacheSize )
+    {
+        _conditionalGetCache = nConditionalGetCacheSize > 0 ? new ConditionalGetCache( nConditionalGetCacheSize ) : null;
+    }
+
+    /**
+     * @return the statistics of the compression of the request and response bodies
+     */
+    public CompressionStatistics getCompressionStatistics( )
+    {
+        return _compressionStatistics;
+    }
+
+    /**
+     * set end point
+     * 
+     * @param strApiEndPointUrl
+     */
+    public void setApiEndPointUrl( String strApiEndPointUrl )
+    {
+
+        _strEndPoint = strApiEndPointUrl;
+    }
+
+    /**
+     * get end point
+     * 
+     * @return strEndPointUrl
+     */
+    public String getApiEndPointUrl( )
+    {
+
+        return _strEndPoint;
+    }
+}
@@ -44,6 +44,7 @@ import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdenti
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentitySearchRequest;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentitySearchResponse;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.duplicate.DuplicateRuleSummarySearchResponse;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.error.ErrorResponse;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.lock.SuspiciousIdentityLockRequest;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.lock.SuspiciousIdentityLockResponse;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.search.DuplicateSearchRequest;
@@ -64,6 +65,18 @@ public class IdentityQualityTransportRest extends AbstractTransportRest implemen
     
     private String _strIdentityPath;
 
+    static
+    {
+        JsonMapperCache.warmUp( _mapper,
+                new Class<?> [ ] {
+                        DuplicateRuleSummarySearchResponse.class, SuspiciousIdentityChangeResponse.class, SuspiciousIdentitySearchResponse.class,
+                        DuplicateSearchResponse.class, SuspiciousIdentityExcludeResponse.class, SuspiciousIdentityLockResponse.class, ErrorResponse.class
+                }, new Class<?> [ ] {
+                        SuspiciousIdentityChangeRequest.class, SuspiciousIdentitySearchRequest.class, DuplicateSearchRequest.class,
+                        SuspiciousIdentityExcludeRequest.class, SuspiciousIdentityLockRequest.class
+                } );
+    }
+
     /**
      * Simple Constructor
      */
@@ -0,0 +1,591 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.rs.service;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Form;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.glassfish.jersey.client.ClientProperties;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fr.paris.lutece.plugins.identityquality.v3.web.service.CustomResponseStatusValidator;
+import fr.paris.lutece.plugins.identitystore.v3.business.IHttpTransportProvider;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.ResponseDto;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.util.Constants;
+import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.util.httpaccess.InvalidResponseStatus;
+
+/**
+ * IHttpTransportProvider which uses the Jersey client.<br>
+ * Each operation is also available as a non-blocking variant (suffixed by <code>Async</code>) which sends the request with the reactive invoker and returns
+ * immediately : the request is executed by the Jersey async thread pool, and the calling thread is not held while the identity store answers. The blocking
+ * variants wait for the non-blocking ones.
+ */
+public class JerseyClientTransport implements IHttpTransportProvider
+{
+    private static final long DEFAULT_CONNECT_TIMEOUT = 5000;
+    private static final long DEFAULT_READ_TIMEOUT = 30000;
+    private static final int DEFAULT_ASYNC_THREAD_POOL_SIZE = 20;
+    private static final String METHOD_DELETE = "DELETE";
+
+    protected String _strEndPoint;
+    private long _lConnectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private long _lReadTimeout = DEFAULT_READ_TIMEOUT;
+    private int _nAsyncThreadPoolSize = DEFAULT_ASYNC_THREAD_POOL_SIZE;
+
+    /** client, built on first use so that all the properties are set */
+    private volatile Client _client;
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @throws IdentityStoreException
+     */
+    @Override
+    public String doPost( String strUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest ) throws IdentityStoreException
+    {
+        return join( doPostAsync( strUrl, mapParams, mapHeadersRequest ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @throws IdentityStoreException
+     */
+    @Override
+    public <T extends ResponseDto> T doPostJSON( String strUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest, Object json,
+            Class<T> responseJsonClass, ObjectMapper mapper ) throws IdentityStoreException
+    {
+        return join( doPostJSONAsync( strUrl, mapParams, mapHeadersRequest, json, responseJsonClass, mapper ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IdentityStoreException
+     */
+    @Override
+    public <T extends ResponseDto> T doPutJSON( String strUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest, Object json,
+            Class<T> responseJsonClass, ObjectMapper mapper ) throws IdentityStoreException
+    {
+        return join( doPutJSONAsync( strUrl, mapParams, mapHeadersRequest, json, responseJsonClass, mapper ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @throws IdentityStoreException
+     */
+    @Override
+    public <T extends ResponseDto> List<T> doPostJSONforList( String strUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest, Object json,
+            Class<T> responseJsonClass, ObjectMapper mapper ) throws IdentityStoreException
+    {
+        return join( doPostJSONforListAsync( strUrl, mapParams, mapHeadersRequest, json, responseJsonClass, mapper ) );
+    }
+
+    @Override
+    public <T extends ResponseDto> T doGet( String strEndPointUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest,
+            Class<T> responseJsonClass, ObjectMapper mapper ) throws IdentityStoreException
+    {
+        return join( doGetAsync( strEndPointUrl, mapParams, mapHeadersRequest, responseJsonClass, mapper ) );
+    }
+
+    @Override
+    public <T extends ResponseDto> T doDelete( String strEndPointUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest,
+            Class<T> responseJsonClass, ObjectMapper mapper ) throws IdentityStoreException
+    {
+        return join( doDeleteAsync( strEndPointUrl, mapParams, mapHeadersRequest, responseJsonClass, mapper ) );
+    }
+
+    @Override
+    public <T extends ResponseDto> T doDeleteJSON( String strEndPointUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest, Object json,
+            Class<T> responseJsonClass, ObjectMapper mapper ) throws IdentityStoreException
+    {
+        return join( doDeleteJSONAsync( strEndPointUrl, mapParams, mapHeadersRequest, json, responseJsonClass, mapper ) );
+    }
+
+    /**
+     * Non-blocking variant of {@link #doPost(String, Map, Map)}
+     * 
+     * @return the future response body, completed with an {@link IdentityStoreException} on failure
+     */
+    public CompletableFuture<String> doPostAsync( String strUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest )
+    {
+        try
+        {
+            addAuthentication( mapHeadersRequest );
+
+            final Form form = new Form( );
+            if ( mapParams != null )
+            {
+                for ( Map.Entry<String, String> param : mapParams.entrySet( ) )
+                {
+                    form.param( param.getKey( ), param.getValue( ) );
+                }
+            }
+            return execute( newRequest( strUrl, null, mapHeadersRequest ).rx( ).post( Entity.form( form ) ), response -> response.readEntity( String.class ) );
+        }
+        catch( Exception e )
+        {
+            return failed( e );
+        }
+    }
+
+    /**
+     * Non-blocking variant of {@link #doPostJSON(String, Map, Map, Object, Class, ObjectMapper)}
+     * 
+     * @return the future response, completed with an {@link IdentityStoreException} on failure
+     */
+    public <T extends ResponseDto> CompletableFuture<T> doPostJSONAsync( String strUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest,
+            Object json, Class<T> responseJsonClass, ObjectMapper mapper )
+    {
+        mapHeadersRequest.put( HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON );
+        mapHeadersRequest.put( HttpHeaders.CONTENT_TYPE, Constants.CONTENT_FORMAT_CHARSET );
+
+        try
+        {
+            addAuthentication( mapHeadersRequest );
+
+            String strJSON = JsonMapperCache.writeValueAsString( mapper, json );
+            return execute( newRequest( strUrl, null, mapHeadersRequest ).rx( ).post( Entity.entity( strJSON, Constants.CONTENT_FORMAT_CHARSET ) ),
+                    response -> JsonResponseMapper.mapJson( mapper, response.readEntity( InputStream.class ), responseJsonClass ) );
+        }
+        catch( Exception e )
+        {
+            return failed( e );
+        }
+    }
+
+    /**
+     * Non-blocking variant of {@link #doPutJSON(String, Map, Map, Object, Class, ObjectMapper)}
+     * 
+     * @return the future response, completed with an {@link IdentityStoreException} on failure
+     */
+    public <T extends ResponseDto> CompletableFuture<T> doPutJSONAsync( String strUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest,
+            Object json, Class<T> responseJsonClass, ObjectMapper mapper )
+    {
+        mapHeadersRequest.put( HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON );
+        mapHeadersRequest.put( HttpHeaders.CONTENT_TYPE, Constants.CONTENT_FORMAT_CHARSET );
+
+        try
+        {
+            addAuthentication( mapHeadersRequest );
+
+            String strJSON = JsonMapperCache.writeValueAsString( mapper, json );
+            return execute( newRequest( strUrl, null, mapHeadersRequest ).rx( ).put( Entity.entity( strJSON, Constants.CONTENT_FORMAT_CHARSET ) ),
+                    response -> JsonResponseMapper.mapJson( mapper, response.readEntity( InputStream.class ), responseJsonClass ) );
+        }
+        catch( Exception e )
+        {
+            return failed( e );
+        }
+    }
+
+    /**
+     * Non-blocking variant of {@link #doPostJSONforList(String, Map, Map, Object, Class, ObjectMapper)}
+     * 
+     * @return the future responses, completed with an {@link IdentityStoreException} on failure
+     */
+    public <T extends ResponseDto> CompletableFuture<List<T>> doPostJSONforListAsync( String strUrl, Map<String, String> mapParams,
+            Map<String, String> mapHeadersRequest, Object json, Class<T> responseJsonClass, ObjectMapper mapper )
+    {
+        mapHeadersRequest.put( HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON );
+        mapHeadersRequest.put( HttpHeaders.CONTENT_TYPE, Constants.CONTENT_FORMAT_CHARSET );
+
+        try
+        {
+            addAuthentication( mapHeadersRequest );
+
+            String strJSON = JsonMapperCache.writeValueAsString( mapper, json );
+            return execute( newRequest( strUrl, null, mapHeadersRequest ).rx( ).post( Entity.entity( strJSON, Constants.CONTENT_FORMAT_CHARSET ) ),
+                    response -> JsonResponseMapper.mapJsonList( mapper, response.readEntity( InputStream.class ), responseJsonClass ) );
+        }
+        catch( Exception e )
+        {
+            return failed( e );
+        }
+    }
+
+    /**
+     * Non-blocking variant of {@link #doGet(String, Map, Map, Class, ObjectMapper)}
+     * 
+     * @return the future response, completed with an {@link IdentityStoreException} on failure
+     */
+    public <T extends ResponseDto> CompletableFuture<T> doGetAsync( String strEndPointUrl, Map<String, String> mapParams, Map<String, String> mapHeadersRequest,
+            Class<T> responseJsonClass, ObjectMapper mapper )
+    {
+        try
+        {
+            addAuthentication( mapHeadersRequest );
+
+            return execute( newRequest( strEndPointUrl, mapParams, mapHeadersRequest ).rx( ).get( ),
+                    response -> JsonResponseMapper.mapJson( mapper, response.readEntity( InputStream.class ), responseJsonClass ) );
+        }
+        catch( Exception e )
+        {
+            return failed( e );
+        }
+    }
+
+    /**
+     * Non-blocking variant of {@link #doDelete(String, Map, Map, Class, ObjectMapper)}
+     * 
+     * @return the future response, completed with an {@link IdentityStoreException} on failure
+     */
+    public <T extends ResponseDto> CompletableFuture<T> doDeleteAsync( String strEndPointUrl, Map<String, String> mapParams,
+            Map<String, String> mapHeadersRequest, Class<T> responseJsonClass, ObjectMapper mapper )
+    {
+        try
+        {
+            addAuthentication( mapHeadersRequest );
+
+            return execute( newRequest( strEndPointUrl, mapParams, mapHeadersRequest ).rx( ).delete( ),
+                    response -> JsonResponseMapper.mapJson( mapper, response.readEntity( InputStream.class ), responseJsonClass ) );
+        }
+        catch( Exception e )
+        {
+            return failed( e );
+        }
+    }
+
+    /**
+     * Non-blocking variant of {@link #doDeleteJSON(String, Map, Map, Object, Class, ObjectMapper)}
+     * 
+     * @return the future response, completed with an {@link IdentityStoreException} on failure
+     */
+    public <T extends ResponseDto> CompletableFuture<T> doDeleteJSONAsync( String strEndPointUrl, Map<String, String> mapParams,
+            Map<String, String> mapHeadersRequest, Object json, Class<T> responseJsonClass, ObjectMapper mapper )
+    {
+        mapHeadersRequest.put( HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON );
+        mapHeadersRequest.put( HttpHeaders.CONTENT_TYPE, Constants.CONTENT_FORMAT_CHARSET );
+
+        try
+        {
+            addAuthentication( mapHeadersRequest );
+
+            String strJSON = JsonMapperCache.writeValueAsString( mapper, json );
+            return execute(
+                    newRequest( strEndPointUrl, mapParams, mapHeadersRequest ).rx( ).method( METHOD_DELETE,
+                            Entity.entity( strJSON, Constants.CONTENT_FORMAT_CHARSET ) ),
+                    response -> JsonResponseMapper.mapJson( mapper, response.readEntity( InputStream.class ), responseJsonClass ) );
+        }
+        catch( Exception e )
+        {
+            return failed( e );
+        }
+    }
+
+    /**
+     * Maps the response of a pending request. Responses whose status is rejected by {@link CustomResponseStatusValidator} raise an
+     * {@link InvalidResponseStatus}, as with library-httpaccess.<br>
+     * JSON responses are read as a stream and parsed as they arrive, without building the whole body as a String.
+     * 
+     * @param pendingResponse
+     *            the pending response
+     * @param bodyMapper
+     *            the mapping of the response body
+     * @return the future result, completed with an {@link IdentityStoreException} on failure
+     */
+    private <R> CompletableFuture<R> execute( final CompletionStage<Response> pendingResponse, final BodyMapper<R> bodyMapper )
+    {
+        final CompletableFuture<R> result = new CompletableFuture<>( );
+        pendingResponse.whenComplete( ( response, throwable ) -> {
+            if ( throwable != null )
+            {
+                result.completeExceptionally( toIdentityStoreException( throwable ) );
+                return;
+            }
+            try
+            {
+                if ( !CustomResponseStatusValidator.getInstance( ).validate( response.getStatus( ) ) )
+                {
+                    throw new InvalidResponseStatus( "Bad HTTP response status " + response.getStatus( ), response.getStatus( ), null );
+                }
+                result.complete( bodyMapper.map( response ) );
+            }
+            catch( Exception e )
+            {
+                result.completeExceptionally( toIdentityStoreException( e ) );
+            }
+            finally
+            {
+                // the whole body has been read, the connection can be reused
+                response.close( );
+            }
+        } );
+        return result;
+    }
+
+    /**
+     * Creates a request on the given URL, with the given query parameters and headers. The content type of requests with a body is given by their entity.
+     * 
+     * @param strUrl
+     *            the URL
+     * @param mapParams
+     *            the query parameters
+     * @param mapHeadersRequest
+     *            the headers
+     * @return the request builder
+     */
+    private Invocation.Builder newRequest( final String strUrl, final Map<String, String> mapParams, final Map<String, String> mapHeadersRequest )
+    {
+        WebTarget target = getClient( ).target( strUrl );
+        if ( mapParams != null )
+        {
+            for ( Map.Entry<String, String> param : mapParams.entrySet( ) )
+            {
+                target = target.queryParam( param.getKey( ), param.getValue( ) );
+            }
+        }
+
+        final Invocation.Builder builder = target.request( );
+        if ( mapHeadersRequest != null )
+        {
+            for ( Map.Entry<String, String> header : mapHeadersRequest.entrySet( ) )
+            {
+                if ( !HttpHeaders.CONTENT_TYPE.equalsIgnoreCase( header.getKey( ) ) )
+                {
+                    builder.header( header.getKey( ), header.getValue( ) );
+                }
+            }
+        }
+        return builder;
+    }
+
+    /**
+     * Waits for a pending request
+     * 
+     * @param future
+     *            the pending request
+     * @return the result
+     * @throws IdentityStoreException
+     */
+    private <R> R join( final CompletableFuture<R> future ) throws IdentityStoreException
+    {
+        try
+        {
+            return future.get( );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            throw toIdentityStoreException( e );
+        }
+        catch( ExecutionException e )
+        {
+            if ( e.getCause( ) instanceof IdentityStoreException )
+            {
+                throw (IdentityStoreException) e.getCause( );
+            }
+            throw toIdentityStoreException( e.getCause( ) );
+        }
+    }
+
+    /**
+     * @return a future already completed with the {@link IdentityStoreException} corresponding to the specified Exception
+     */
+    private <R> CompletableFuture<R> failed( final Exception e )
+    {
+        final CompletableFuture<R> result = new CompletableFuture<>( );
+        result.completeExceptionally( toIdentityStoreException( e ) );
+        return result;
+    }
+
+    /**
+     * add error log and build correct Exception depending on the specified Exception
+     * 
+     * @param e
+     *            root exception
+     * @return the exception to raise
+     */
+    protected IdentityStoreException toIdentityStoreException( Throwable e )
+    {
+        Throwable cause = e;
+        if ( cause instanceof CompletionException && cause.getCause( ) != null )
+        {
+            cause = cause.getCause( );
+        }
+        if ( cause instanceof IdentityStoreException )
+        {
+            return (IdentityStoreException) cause;
+        }
+
+        String strError = "LibraryIdentityStore - Error JerseyClientTransport :";
+        AppLogService.error( strError + cause.getMessage( ), cause );
+
+        return new IdentityStoreException( strError, cause );
+    }
+
+    /**
+     * add specific authentication to request
+     * 
+     * @param mapHeadersRequest
+     *            map of headers to add
+     * @throws IdentityStoreException
+     */
+    protected void addAuthentication( Map<String, String> mapHeadersRequest ) throws IdentityStoreException
+    {
+        // default : no authentication
+    }
+
+    /**
+     * @return the Jersey client, shared by all the requests of this transport
+     */
+    protected Client getClient( )
+    {
+        Client client = _client;
+        if ( client == null )
+        {
+            synchronized( this )
+            {
+                client = _client;
+                if ( client == null )
+                {
+                    client = ClientBuilder.newBuilder( ).connectTimeout( _lConnectTimeout, TimeUnit.MILLISECONDS )
+                            .readTimeout( _lReadTimeout, TimeUnit.MILLISECONDS ).property( ClientProperties.ASYNC_THREADPOOL_SIZE, _nAsyncThreadPoolSize )
+                            .build( );
+                    _client = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Closes the Jersey client, releasing its connections and threads. A new client is built if the transport is used again.
+     */
+    public void close( )
+    {
+        resetClient( );
+    }
+
+    /**
+     * Discards the Jersey client, so that the next request builds one with the current settings. The previous client is closed : the settings are meant to
+     * be changed while no request is in flight.
+     */
+    private synchronized void resetClient( )
+    {
+        final Client client = _client;
+        _client = null;
+        if ( client != null )
+        {
+            client.close( );
+        }
+    }
+
+    /**
+     * Sets the connection timeout
+     * 
+     * @param lConnectTimeout
+     *            the timeout, in milliseconds
+     */
+    public void setConnectTimeout( long lConnectTimeout )
+    {
+        _lConnectTimeout = lConnectTimeout;
+        resetClient( );
+    }
+
+    /**
+     * Sets the read timeout
+     * 
+     * @param lReadTimeout
+     *            the timeout, in milliseconds
+     */
+    public void setReadTimeout( long lReadTimeout )
+    {
+        _lReadTimeout = lReadTimeout;
+        resetClient( );
+    }
+
+    /**
+     * Sets the size of the thread pool executing the requests
+     * 
+     * @param nAsyncThreadPoolSize
+     *            the number of threads
+     */
+    public void setAsyncThreadPoolSize( int nAsyncThreadPoolSize )
+    {
+        _nAsyncThreadPoolSize = nAsyncThreadPoolSize;
+        resetClient( );
+    }
+
+    /**
+     * set end point
+     * 
+     * @param strApiEndPointUrl
+     */
+    public void setApiEndPointUrl( String strApiEndPointUrl )
+    {
+
+        _strEndPoint = strApiEndPointUrl;
+    }
+
+    /**
+     * get end point
+     * 
+     * @return strEndPointUrl
+     */
+    public String getApiEndPointUrl( )
+    {
+
+        return _strEndPoint;
+    }
+
+    /**
+     * Mapping of a response body
+     */
+    @FunctionalInterface
+    private interface BodyMapper<R>
+    {
+        R map( Response response ) throws Exception;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.rs.service;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import fr.paris.lutece.plugins.identityquality.v3.web.service.TransportCallMetrics;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+/**
+ * Cache of the {@link ObjectReader} and {@link ObjectWriter} of each DTO class, for each {@link ObjectMapper}.<br>
+ * Readers and writers resolve their (de)serializer once, when they are created, instead of on each call.
+ */
+final class JsonMapperCache
+{
+    /** Jackson modules generating bytecode accessors, registered if found on the classpath, by order of preference */
+    private static final String [ ] OPTIMIZER_MODULES = {
+            "com.fasterxml.jackson.module.blackbird.BlackbirdModule", "com.fasterxml.jackson.module.afterburner.AfterburnerModule"
+    };
+
+    private static final Map<ObjectMapper, Cache> CACHES = Collections.synchronizedMap( new WeakHashMap<>( ) );
+
+    private JsonMapperCache( )
+    {
+    }
+
+    /**
+     * @param mapper
+     *            the mapper
+     * @param valueClass
+     *            the class to read
+     * @return the reader of the class
+     */
+    static ObjectReader reader( final ObjectMapper mapper, final Class<?> valueClass )
+    {
+        return cache( mapper )._readers.computeIfAbsent( valueClass, mapper::readerFor );
+    }
+
+    /**
+     * @param mapper
+     *            the mapper
+     * @param valueClass
+     *            the class of the elements
+     * @return the reader of a {@link List} of the class
+     */
+    static ObjectReader listReader( final ObjectMapper mapper, final Class<?> valueClass )
+    {
+        return cache( mapper )._listReaders.computeIfAbsent( valueClass,
+                c -> mapper.readerFor( mapper.getTypeFactory( ).constructCollectionType( List.class, c ) ) );
+    }
+
+    /**
+     * @param mapper
+     *            the mapper
+     * @param valueClass
+     *            the class to write
+     * @return the writer of the class
+     */
+    static ObjectWriter writer( final ObjectMapper mapper, final Class<?> valueClass )
+    {
+        return cache( mapper )._writers.computeIfAbsent( valueClass, mapper::writerFor );
+    }
+
+    /**
+     * Serializes the value with the writer of its class, reporting the serialization to the measured call, if any
+     * 
+     * @param mapper
+     *            the mapper
+     * @param value
+     *            the value, may be null
+     * @return the JSON string
+     * @throws JsonProcessingException
+     */
+    static String writeValueAsString( final ObjectMapper mapper, final Object value ) throws JsonProcessingException
+    {
+        if ( value == null )
+        {
+            return mapper.writeValueAsString( null );
+        }
+        final long lStart = System.nanoTime( );
+        final String strJson = writer( mapper, value.getClass( ) ).writeValueAsString( value );
+        TransportCallMetrics.recordSerialization( System.nanoTime( ) - lStart, strJson );
+        return strJson;
+    }
+
+    /**
+     * Creates the readers of the response classes and the writers of the request classes, so that the first requests do not pay for it
+     * 
+     * @param mapper
+     *            the mapper
+     * @param responseClasses
+     *            the classes to read
+     * @param requestClasses
+     *            the classes to write
+     */
+    static void warmUp( final ObjectMapper mapper, final Class<?> [ ] responseClasses, final Class<?> [ ] requestClasses )
+    {
+        for ( final Class<?> responseClass : responseClasses )
+        {
+            reader( mapper, responseClass );
+        }
+        for ( final Class<?> requestClass : requestClasses )
+        {
+            writer( mapper, requestClass );
+        }
+    }
+
+    /**
+     * Registers the first Jackson bytecode optimizer module (Blackbird, then Afterburner) found on the classpath. None is a dependency of the library : add one
+     * to the webapp to enable it. Must be called before the mapper is used.
+     * 
+     * @param mapper
+     *            the mapper
+     */
+    static void registerOptimizerModule( final ObjectMapper mapper )
+    {
+        for ( final String strModuleClass : OPTIMIZER_MODULES )
+        {
+            try
+            {
+                mapper.registerModule( (Module) Class.forName( strModuleClass ).getConstructor( ).newInstance( ) );
+                AppLogService.info( "LibraryIdentityQuality - Jackson module registered : " + strModuleClass );
+                return;
+            }
+            catch( final ReflectiveOperationException | LinkageError | RuntimeException e )
+            {
+                // module not available : try the next one
+            }
+        }
+    }
+
+    private static Cache cache( final ObjectMapper mapper )
+    {
+        return CACHES.computeIfAbsent( mapper, m -> new Cache( ) );
+    }
+
+    /**
+     * Readers and writers of a mapper
+     */
+    private static final class Cache
+    {
+        private final Map<Class<?>, ObjectReader> _readers = new ConcurrentHashMap<>( );
+        private final Map<Class<?>, ObjectReader> _listReaders = new ConcurrentHashMap<>( );
+        private final Map<Class<?>, ObjectWriter> _writers = new ConcurrentHashMap<>( );
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.rs.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import fr.paris.lutece.plugins.identityquality.v3.web.service.TransportCallMetrics;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.ResponseDto;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.error.ErrorResponse;
+
+/**
+ * Maps the JSON responses of the identity store to {@link ResponseDto} subclasses, error responses included.<br>
+ * The body is parsed once into a {@link TokenBuffer}, without keeping the raw body (String or bytes) in memory. Its shape (single response, list, error or list
+ * of errors) is then read from the buffered tokens, and it is bound once to the matching class.
+ */
+final class JsonResponseMapper
+{
+    /** Shapes of a response body */
+    private enum Shape
+    {
+        EMPTY,
+        OBJECT,
+        ERROR,
+        LIST,
+        ERROR_LIST
+    }
+
+    /** No-arg constructors of the response classes, as handles returning a ResponseDto */
+    private static final ClassValue<MethodHandle> CONSTRUCTORS = new ClassValue<MethodHandle>( )
+    {
+        @Override
+        protected MethodHandle computeValue( final Class<?> responseClass )
+        {
+            try
+            {
+                return MethodHandles.publicLookup( ).findConstructor( responseClass, MethodType.methodType( void.class ) )
+                        .asType( MethodType.methodType( ResponseDto.class ) );
+            }
+            catch( final ReflectiveOperationException e )
+            {
+                return null;
+            }
+        }
+    };
+
+    /** JSON property names of {@link ErrorResponse}, for each mapper */
+    private static final Map<ObjectMapper, Set<String>> ERROR_PROPERTIES = Collections.synchronizedMap( new WeakHashMap<>( ) );
+
+    private JsonResponseMapper( )
+    {
+    }
+
+    /**
+     * Converts json String response to the desired {@link ResponseDto} subclass instance.
+     *
+     * @param mapper
+     *            the mapper
+     * @param jsonStr
+     *            the json string value
+     * @param responseClass
+     *            the desired {@link ResponseDto} subclass
+     * @return the desired {@link ResponseDto} subclass instance
+     */
+    static <T extends ResponseDto> T mapJson( final ObjectMapper mapper, final String jsonStr, final Class<T> responseClass )
+            throws IOException, ReflectiveOperationException
+    {
+        final long lStart = System.nanoTime( );
+        try ( final JsonParser parser = mapper.getFactory( ).createParser( jsonStr ) )
+        {
+            final T response = mapJson( mapper, parser, responseClass );
+            TransportCallMetrics.recordDeserialization( System.nanoTime( ) - lStart, jsonStr );
+            return response;
+        }
+    }
+
+    /**
+     * Converts json response stream to the desired {@link ResponseDto} subclass instance. The stream is parsed as it is read, and closed.
+     *
+     * @param mapper
+     *            the mapper
+     * @param jsonStream
+     *            the json stream
+     * @param responseClass
+     *            the desired {@link ResponseDto} subclass
+     * @return the desired {@link ResponseDto} subclass instance
+     */
+    static <T extends ResponseDto> T mapJson( final ObjectMapper mapper, final InputStream jsonStream, final Class<T> responseClass )
+            throws IOException, ReflectiveOperationException
+    {
+        final long lStart = System.nanoTime( );
+        try ( final JsonParser parser = mapper.getFactory( ).createParser( jsonStream ) )
+        {
+            final T response = mapJson( mapper, parser, responseClass );
+            TransportCallMetrics.recordDeserialization( System.nanoTime( ) - lStart, parser.getCurrentLocation( ).getByteOffset( ) );
+            return response;
+        }
+    }
+
+    /**
+     * Converts json String response to a {@link List} of the desired {@link ResponseDto} subclass instances.
+     *
+     * @param mapper
+     *            the mapper
+     * @param jsonStr
+     *            the json string value
+     * @param responseClass
+     *            the desired {@link ResponseDto} subclass
+     * @return a {@link List} of the desired {@link ResponseDto} subclass instances
+     */
+    static <T extends ResponseDto> List<T> mapJsonList( final ObjectMapper mapper, final String jsonStr, final Class<T> responseClass )
+            throws IOException, ReflectiveOperationException
+    {
+        final long lStart = System.nanoTime( );
+        try ( final JsonParser parser = mapper.getFactory( ).createParser( jsonStr ) )
+        {
+            final List<T> response = mapJsonList( mapper, parser, responseClass );
+            TransportCallMetrics.recordDeserialization( System.nanoTime( ) - lStart, jsonStr );
+            return response;
+        }
+    }
+
+    /**
+     * Converts json response stream to a {@link List} of the desired {@link ResponseDto} subclass instances. The stream is parsed as it is read, and closed.
+     *
+     * @param mapper
+     *            the mapper
+     * @param jsonStream
+     *            the json stream
+     * @param responseClass
+     *            the desired {@link ResponseDto} subclass
+     * @return a {@link List} of the desired {@link ResponseDto} subclass instances
+     */
+    static <T extends ResponseDto> List<T> mapJsonList( final ObjectMapper mapper, final InputStream jsonStream, final Class<T> responseClass )
+            throws IOException, ReflectiveOperationException
+    {
+        final long lStart = System.nanoTime( );
+        try ( final JsonParser parser = mapper.getFactory( ).createParser( jsonStream ) )
+        {
+            final List<T> response = mapJsonList( mapper, parser, responseClass );
+            TransportCallMetrics.recordDeserialization( System.nanoTime( ) - lStart, parser.getCurrentLocation( ).getByteOffset( ) );
+            return response;
+        }
+    }
+
+    private static <T extends ResponseDto> T mapJson( final ObjectMapper mapper, final JsonParser parser, final Class<T> responseClass )
+            throws IOException, ReflectiveOperationException
+    {
+        final TokenBuffer buffer = JsonMapperCache.reader( mapper, TokenBuffer.class ).readValue( parser );
+
+        switch( shapeOf( mapper, buffer ) )
+        {
+            case EMPTY:
+                return null;
+            case ERROR:
+                // If it is an error response, we need to convert it to the desired response class
+                return fromError( JsonMapperCache.reader( mapper, ErrorResponse.class ).readValue( buffer.asParser( mapper ) ), responseClass );
+            default:
+                return JsonMapperCache.reader( mapper, responseClass ).readValue( buffer.asParser( mapper ) );
+        }
+    }
+
+    private static <T extends ResponseDto> List<T> mapJsonList( final ObjectMapper mapper, final JsonParser parser, final Class<T> responseClass )
+            throws IOException, ReflectiveOperationException
+    {
+        final TokenBuffer buffer = JsonMapperCache.reader( mapper, TokenBuffer.class ).readValue( parser );
+        final List<T> responseList = new ArrayList<>( );
+
+        switch( shapeOf( mapper, buffer ) )
+        {
+            case EMPTY:
+                return responseList;
+            case LIST:
+                return JsonMapperCache.listReader( mapper, responseClass ).readValue( buffer.asParser( mapper ) );
+            case ERROR_LIST:
+                // If it is an error responseList, we need to convert it to the desired responseList class
+                final List<ErrorResponse> errorResponseList = JsonMapperCache.listReader( mapper, ErrorResponse.class ).readValue( buffer.asParser( mapper ) );
+                for ( final ErrorResponse er : errorResponseList )
+                {
+                    responseList.add( fromError( er, responseClass ) );
+                }
+                return responseList;
+            default:
+                // A single object where a list is expected is a single error response
+                final ErrorResponse er = JsonMapperCache.reader( mapper, ErrorResponse.class ).readValue( buffer.asParser( mapper ) );
+                if ( er != null )
+                {
+                    responseList.add( fromError( er, responseClass ) );
+                }
+                return responseList;
+        }
+    }
+
+    /**
+     * Reads the shape of the buffered body, from its first tokens only : an object is an error response if all its properties are properties of
+     * {@link ErrorResponse}, an array is a list of error responses if its first element is an error response.
+     * 
+     * @param mapper
+     *            the mapper
+     * @param buffer
+     *            the buffered body
+     * @return the shape of the body
+     * @throws IOException
+     */
+    private static Shape shapeOf( final ObjectMapper mapper, final TokenBuffer buffer ) throws IOException
+    {
+        if ( buffer == null )
+        {
+            return Shape.EMPTY;
+        }
+
+        try ( final JsonParser parser = buffer.asParser( mapper ) )
+        {
+            final JsonToken token = parser.nextToken( );
+            if ( token == null || token == JsonToken.VALUE_NULL )
+            {
+                return Shape.EMPTY;
+            }
+            if ( token == JsonToken.START_ARRAY )
+            {
+                return parser.nextToken( ) == JsonToken.START_OBJECT && isError( mapper, parser ) ? Shape.ERROR_LIST : Shape.LIST;
+            }
+            if ( token == JsonToken.START_OBJECT )
+            {
+                return isError( mapper, parser ) ? Shape.ERROR : Shape.OBJECT;
+            }
+            return Shape.OBJECT;
+        }
+    }
+
+    /**
+     * Checks whether the object starting at the current token is an error response
+     * 
+     * @param mapper
+     *            the mapper
+     * @param parser
+     *            the parser, on the start of the object
+     * @return true if the object only has {@link ErrorResponse} properties
+     * @throws IOException
+     */
+    private static boolean isError( final ObjectMapper mapper, final JsonParser parser ) throws IOException
+    {
+        final Set<String> errorProperties = getErrorProperties( mapper );
+        boolean bEmpty = true;
+        while ( parser.nextToken( ) == JsonToken.FIELD_NAME )
+        {
+            if ( !errorProperties.contains( parser.getCurrentName( ) ) )
+            {
+                return false;
+            }
+            bEmpty = false;
+            parser.nextToken( );
+            parser.skipChildren( );
+        }
+        return !bEmpty;
+    }
+
+    /**
+     * @param mapper
+     *            the mapper
+     * @return the JSON property names of {@link ErrorResponse} with this mapper
+     */
+    private static Set<String> getErrorProperties( final ObjectMapper mapper )
+    {
+        return ERROR_PROPERTIES.computeIfAbsent( mapper, m -> {
+            final Set<String> properties = new HashSet<>( );
+            for ( final BeanPropertyDefinition property : m.getDeserializationConfig( ).introspect( m.constructType( ErrorResponse.class ) ).findProperties( ) )
+            {
+                properties.add( property.getName( ) );
+            }
+            return properties;
+        } );
+    }
+
+    /**
+     * Converts an error response to the desired {@link ResponseDto} subclass
+     * 
+     * @param er
+     *            the error response
+     * @param responseClass
+     *            the desired {@link ResponseDto} subclass
+     * @return the desired {@link ResponseDto} subclass instance, with the status of the error
+     * @throws ReflectiveOperationException
+     */
+    private static <T extends ResponseDto> T fromError( final ErrorResponse er, final Class<T> responseClass ) throws ReflectiveOperationException
+    {
+        final MethodHandle constructor = CONSTRUCTORS.get( responseClass );
+        if ( constructor == null )
+        {
+            throw new InstantiationException( "No public no-arg constructor for " + responseClass.getName( ) );
+        }
+
+        final T response;
+        try
+        {
+            response = responseClass.cast( (ResponseDto) constructor.invokeExact( ) );
+        }
+        catch( final ReflectiveOperationException | RuntimeException | Error e )
+        {
+            throw e;
+        }
+        catch( final Throwable e )
+        {
+            throw new InvocationTargetException( e );
+        }
+        response.setStatus( er.getStatus( ) );
+        return response;
+    }
+}
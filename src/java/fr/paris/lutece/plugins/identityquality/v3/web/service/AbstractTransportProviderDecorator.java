@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.RequestAuthor;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentityChangeRequest;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentityChangeResponse;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentityExcludeRequest;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentityExcludeResponse;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentitySearchRequest;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentitySearchResponse;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.duplicate.DuplicateRuleSummarySearchResponse;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.lock.SuspiciousIdentityLockRequest;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.lock.SuspiciousIdentityLockResponse;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.search.DuplicateSearchRequest;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.search.DuplicateSearchResponse;
+import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+
+/**
+ * Base class of the transport providers adding a behaviour to another transport provider. Every call is delegated to the decorated provider through
+ * {@link #invoke}; subclasses override either the calls they are interested in, or {@link #invoke} to wrap all of them.
+ */
+public abstract class AbstractTransportProviderDecorator implements IIdentityQualityTransportProvider
+{
+    /** decorated transport provider */
+    protected IIdentityQualityTransportProvider _transportProvider;
+
+    /**
+     * Simple Constructor
+     */
+    protected AbstractTransportProviderDecorator( )
+    {
+        super( );
+    }
+
+    /**
+     * Constructor with the decorated IIdentityQualityTransportProvider in parameters
+     *
+     * @param transportProvider
+     *            the decorated IIdentityQualityTransportProvider
+     */
+    protected AbstractTransportProviderDecorator( final IIdentityQualityTransportProvider transportProvider )
+    {
+        super( );
+        this._transportProvider = transportProvider;
+    }
+
+    /**
+     * setter of transportProvider parameter
+     *
+     * @param transportProvider
+     *            the decorated IIdentityQualityTransportProvider
+     */
+    public void setTransportProvider( final IIdentityQualityTransportProvider transportProvider )
+    {
+        this._transportProvider = transportProvider;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public DuplicateRuleSummarySearchResponse getAllDuplicateRules( final String strClientCode, final RequestAuthor author, final Integer priority )
+            throws IdentityStoreException
+    {
+        return invoke( TransportOperation.GET_ALL_DUPLICATE_RULES, strClientCode,
+                ( ) -> _transportProvider.getAllDuplicateRules( strClientCode, author, priority ) );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public SuspiciousIdentityChangeResponse createSuspiciousIdentity( final SuspiciousIdentityChangeRequest request, final String strClientCode,
+            final RequestAuthor author ) throws IdentityStoreException
+    {
+        return invoke( TransportOperation.CREATE_SUSPICIOUS_IDENTITY, strClientCode,
+                ( ) -> _transportProvider.createSuspiciousIdentity( request, strClientCode, author ) );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public SuspiciousIdentitySearchResponse getSuspiciousIdentities( final SuspiciousIdentitySearchRequest request, final String strClientCode,
+            final RequestAuthor author ) throws IdentityStoreException
+    {
+        return invoke( TransportOperation.GET_SUSPICIOUS_IDENTITIES, strClientCode,
+                ( ) -> _transportProvider.getSuspiciousIdentities( request, strClientCode, author ) );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public DuplicateSearchResponse getDuplicates( final String customerId, final String ruleCode, final String strClientCode, final RequestAuthor author )
+            throws IdentityStoreException
+    {
+        return invoke( TransportOperation.GET_DUPLICATES, strClientCode,
+                ( ) -> _transportProvider.getDuplicates( customerId, ruleCode, strClientCode, author ) );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public DuplicateSearchResponse searchDuplicates( final DuplicateSearchRequest request, final String strClientCode, final RequestAuthor author )
+            throws IdentityStoreException
+    {
+        return invoke( TransportOperation.SEARCH_DUPLICATES, strClientCode, ( ) -> _transportProvider.searchDuplicates( request, strClientCode, author ) );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public SuspiciousIdentityExcludeResponse excludeIdentities( final SuspiciousIdentityExcludeRequest request, final String strClientCode,
+            final RequestAuthor author ) throws IdentityStoreException
+    {
+        return invoke( TransportOperation.EXCLUDE_IDENTITIES, strClientCode, ( ) -> _transportProvider.excludeIdentities( request, strClientCode, author ) );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public SuspiciousIdentityExcludeResponse cancelIdentitiesExclusion( final SuspiciousIdentityExcludeRequest request, final String strClientCode,
+            final RequestAuthor author ) throws IdentityStoreException
+    {
+        return invoke( TransportOperation.CANCEL_IDENTITIES_EXCLUSION, strClientCode,
+                ( ) -> _transportProvider.cancelIdentitiesExclusion( request, strClientCode, author ) );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public SuspiciousIdentityLockResponse lock( final SuspiciousIdentityLockRequest request, final String strClientCode, final RequestAuthor author )
+            throws IdentityStoreException
+    {
+        return invoke( TransportOperation.LOCK, strClientCode, ( ) -> _transportProvider.lock( request, strClientCode, author ) );
+    }
+
+    /**
+     * Executes a call delegated to the decorated provider. By default, the call is executed as is.
+     * 
+     * @param operation
+     *            the operation
+     * @param strClientCode
+     *            the client code
+     * @param call
+     *            the call to the decorated provider
+     * @return the response
+     * @throws IdentityStoreException
+     */
+    protected <R> R invoke( final TransportOperation operation, final String strClientCode, final ITransportCall<R> call ) throws IdentityStoreException
+    {
+        return call.call( );
+    }
+}
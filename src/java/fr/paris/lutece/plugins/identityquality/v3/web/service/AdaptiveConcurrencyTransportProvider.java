@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+
+/**
+ * Transport provider limiting the number of calls in flight to the identity store with a limit adapting itself to the observed latencies (AIMD) :
+ * <ul>
+ * <li>while the latencies stay close to the lowest latency observed for their operation (the latency of the unloaded identity store), the limit grows by
+ * about one call per round trip, as long as it is actually used</li>
+ * <li>when a latency exceeds the tolerance, or a call fails with a transient failure, the limit is decreased by a ratio, at most once per round trip : the
+ * calls started before the last decrease don't decrease it again</li>
+ * </ul>
+ * Only the calls reaching the identity store adapt the limit : the other failures, such as invalid requests, are ignored. The calls over the limit wait in a
+ * queue, up to a maximum time, after which they fail with an {@link IdentityStoreException}.
+ */
+public class AdaptiveConcurrencyTransportProvider extends AbstractTransportProviderDecorator
+{
+    private static final int DEFAULT_INITIAL_LIMIT = 20;
+    private static final int DEFAULT_MIN_LIMIT = 1;
+    private static final int DEFAULT_MAX_LIMIT = 200;
+    private static final double DEFAULT_LATENCY_TOLERANCE = 2;
+    private static final double DEFAULT_BACKOFF_RATIO = 0.9;
+    private static final long DEFAULT_MAX_WAIT = 1000;
+
+    /** number of calls after which the lowest latency is measured again, so that it follows the changes of the identity store */
+    private static final int MIN_LATENCY_WINDOW = 500;
+
+    private final Object _lock = new Object( );
+    private double _dLimit = DEFAULT_INITIAL_LIMIT;
+    private int _nInFlight;
+    private int _nQueueDepth;
+    private long _lLastDecreaseTime = System.nanoTime( );
+    private final Map<TransportOperation, LatencyBaseline> _mapBaselines = new EnumMap<>( TransportOperation.class );
+
+    private int _nMinLimit = DEFAULT_MIN_LIMIT;
+    private int _nMaxLimit = DEFAULT_MAX_LIMIT;
+    private double _dLatencyTolerance = DEFAULT_LATENCY_TOLERANCE;
+    private double _dBackoffRatio = DEFAULT_BACKOFF_RATIO;
+    private long _lMaxWait = DEFAULT_MAX_WAIT;
+
+    /**
+     * Simple Constructor
+     */
+    public AdaptiveConcurrencyTransportProvider( )
+    {
+        super( );
+    }
+
+    /**
+     * Constructor with the decorated IIdentityQualityTransportProvider in parameters
+     *
+     * @param transportProvider
+     *            the decorated IIdentityQualityTransportProvider
+     */
+    public AdaptiveConcurrencyTransportProvider( final IIdentityQualityTransportProvider transportProvider )
+    {
+        super( transportProvider );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    protected <R> R invoke( final TransportOperation operation, final String strClientCode, final ITransportCall<R> call ) throws IdentityStoreException
+    {
+        acquire( operation );
+
+        final long lStart = System.nanoTime( );
+        boolean bDropped = false;
+        boolean bMeasured = true;
+        try
+        {
+            return call.call( );
+        }
+        catch( IdentityStoreException | RuntimeException e )
+        {
+            bDropped = TransportFailures.isTransient( e );
+            // a call rejected before reaching the identity store, such as an invalid request, says nothing about its latency
+            bMeasured = bDropped;
+            throw e;
+        }
+        finally
+        {
+            release( operation, lStart, bDropped, bMeasured );
+        }
+    }
+
+    /**
+     * Waits for the number of calls in flight to be under the limit
+     * 
+     * @throws IdentityStoreException
+     *             if the maximum wait is over, or if interrupted
+     */
+    private void acquire( final TransportOperation operation ) throws IdentityStoreException
+    {
+        synchronized( _lock )
+        {
+            if ( _nInFlight < (int) _dLimit )
+            {
+                _nInFlight++;
+                return;
+            }
+
+            final long lDeadline = System.nanoTime( ) + TimeUnit.MILLISECONDS.toNanos( _lMaxWait );
+            _nQueueDepth++;
+            try
+            {
+                while ( _nInFlight >= (int) _dLimit )
+                {
+                    final long lRemaining = lDeadline - System.nanoTime( );
+                    if ( lRemaining <= 0 )
+                    {
+                        throw new IdentityStoreException( "LibraryIdentityQuality - Call of " + operation + " rejected : " + _nInFlight
+                                + " calls in flight, for a limit of " + (int) _dLimit );
+                    }
+                    TimeUnit.NANOSECONDS.timedWait( _lock, lRemaining );
+                }
+                _nInFlight++;
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread( ).interrupt( );
+                throw new IdentityStoreException( "LibraryIdentityQuality - Interrupted while waiting for the concurrency limit", e );
+            }
+            finally
+            {
+                _nQueueDepth--;
+            }
+        }
+    }
+
+    /**
+     * Ends a call, and adapts the limit to its outcome
+     * 
+     * @param operation
+     *            the operation of the call
+     * @param lStart
+     *            the start time of the call, in nanoseconds
+     * @param bDropped
+     *            true if the call failed with a transient failure
+     * @param bMeasured
+     *            true if the call reached the identity store (success or transient failure), so that the limit is adapted to it
+     */
+    private void release( final TransportOperation operation, final long lStart, final boolean bDropped, final boolean bMeasured )
+    {
+        final long lEnd = System.nanoTime( );
+        final long lLatency = lEnd - lStart;
+        synchronized( _lock )
+        {
+            final int nInFlight = _nInFlight--;
+            if ( !bMeasured )
+            {
+                _lock.notifyAll( );
+                return;
+            }
+            final long lMinLatency = _mapBaselines.computeIfAbsent( operation, o -> new LatencyBaseline( ) ).add( lLatency );
+
+            if ( bDropped || lLatency > lMinLatency * _dLatencyTolerance )
+            {
+                if ( lStart - _lLastDecreaseTime >= 0 )
+                {
+                    // a call started before the last decrease saw the load which caused it
+                    _dLimit = Math.max( _nMinLimit, _dLimit * _dBackoffRatio );
+                    _lLastDecreaseTime = lEnd;
+                }
+            }
+            else
+                if ( nInFlight * 2 >= _dLimit )
+                {
+                    // additive increase, about one call per round trip, only when the limit is actually used
+                    _dLimit = Math.min( _nMaxLimit, _dLimit + 1 / _dLimit );
+                }
+
+            _lock.notifyAll( );
+        }
+    }
+
+    /**
+     * @return the current number of calls allowed in flight
+     */
+    public int getLimit( )
+    {
+        synchronized( _lock )
+        {
+            return (int) _dLimit;
+        }
+    }
+
+    /**
+     * @return the number of calls in flight
+     */
+    public int getInFlight( )
+    {
+        synchronized( _lock )
+        {
+            return _nInFlight;
+        }
+    }
+
+    /**
+     * @return the number of calls waiting for the limit
+     */
+    public int getQueueDepth( )
+    {
+        synchronized( _lock )
+        {
+            return _nQueueDepth;
+        }
+    }
+
+    /**
+     * Sets the limit before any latency is observed
+     * 
+     * @param nInitialLimit
+     *            the number of calls
+     */
+    public void setInitialLimit( final int nInitialLimit )
+    {
+        synchronized( _lock )
+        {
+            _dLimit = nInitialLimit;
+        }
+    }
+
+    /**
+     * Sets the lowest limit
+     * 
+     * @param nMinLimit
+     *            the number of calls
+     */
+    public void setMinLimit( final int nMinLimit )
+    {
+        _nMinLimit = nMinLimit;
+    }
+
+    /**
+     * Sets the highest limit
+     * 
+     * @param nMaxLimit
+     *            the number of calls
+     */
+    public void setMaxLimit( final int nMaxLimit )
+    {
+        _nMaxLimit = nMaxLimit;
+    }
+
+    /**
+     * Sets the ratio to the lowest observed latency from which a latency decreases the limit
+     * 
+     * @param dLatencyTolerance
+     *            the ratio, greater than 1
+     */
+    public void setLatencyTolerance( final double dLatencyTolerance )
+    {
+        _dLatencyTolerance = dLatencyTolerance;
+    }
+
+    /**
+     * Sets the ratio applied to the limit when it is decreased
+     * 
+     * @param dBackoffRatio
+     *            the ratio, between 0 and 1
+     */
+    public void setBackoffRatio( final double dBackoffRatio )
+    {
+        _dBackoffRatio = dBackoffRatio;
+    }
+
+    /**
+     * Sets the time a call over the limit waits before being rejected
+     * 
+     * @param lMaxWait
+     *            the time, in milliseconds, 0 to reject immediately
+     */
+    public void setMaxWait( final long lMaxWait )
+    {
+        _lMaxWait = lMaxWait;
+    }
+
+    /**
+     * Lowest latency of an operation, measured again every {@link #MIN_LATENCY_WINDOW} calls
+     */
+    private static final class LatencyBaseline
+    {
+        private long _lMinLatency = Long.MAX_VALUE;
+        private long _lWindowMinLatency = Long.MAX_VALUE;
+        private int _nWindowCalls;
+
+        /**
+         * Records a latency
+         * 
+         * @param lLatency
+         *            the latency, in nanoseconds
+         * @return the lowest latency
+         */
+        long add( final long lLatency )
+        {
+            _lWindowMinLatency = Math.min( _lWindowMinLatency, lLatency );
+            if ( ++_nWindowCalls >= MIN_LATENCY_WINDOW )
+            {
+                _lMinLatency = _lWindowMinLatency;
+                _lWindowMinLatency = Long.MAX_VALUE;
+                _nWindowCalls = 0;
+            }
+            _lMinLatency = Math.min( _lMinLatency, lLatency );
+            return _lMinLatency;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+import javax.ws.rs.core.Response;
+
+import fr.paris.lutece.util.httpaccess.ResponseStatusValidator;
+
+/**
+ * Response status validator used behind an API Manager : same as {@link CustomResponseStatusValidator}, but rejects <code>401 Unauthorized</code> so that an
+ * expired token can be detected and renewed.
+ */
+public class ApiManagerResponseStatusValidator implements ResponseStatusValidator
+{
+    private static ApiManagerResponseStatusValidator instance;
+
+    public static ApiManagerResponseStatusValidator getInstance( )
+    {
+        if ( instance == null )
+        {
+            instance = new ApiManagerResponseStatusValidator( );
+        }
+        return instance;
+    }
+
+    private ApiManagerResponseStatusValidator( )
+    {
+    }
+
+    @Override
+    public boolean validate( int i )
+    {
+        return i < 500 && i != Response.Status.UNAUTHORIZED.getStatusCode( );
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+/**
+ * Executes one call per item of a batch, with a bounded number of calls in flight and a deadline per call.<br>
+ * The calls run on a shared executor; the parallelism of each batch is bounded by its own permits. A call failing or exceeding its deadline is reported to
+ * the handler as a failure of its item, without stopping the batch. A call exceeding its deadline is interrupted; its permit is only released once the call
+ * has returned, so that the parallelism is never exceeded.<br>
+ * Once the handler is complete, the batch stops early, and the calls still in flight are interrupted.
+ */
+public class BatchExecutor
+{
+    private static final String THREAD_NAME_PREFIX = "identityquality-batch-";
+    private static final String TIMER_THREAD_NAME_PREFIX = "identityquality-batch-timer-";
+
+    /** executor shared by the instances without executor */
+    private static Executor _defaultExecutor;
+
+    /** timer shared by the executors, firing the call deadlines */
+    private static ScheduledExecutorService _timer;
+
+    private final int _nParallelism;
+    private final long _lCallTimeout;
+    private final Executor _executor;
+
+    /**
+     * Constructor, running the calls on the default executor
+     * 
+     * @param nParallelism
+     *            the maximum number of calls in flight
+     * @param lCallTimeout
+     *            the deadline of each call, in milliseconds, or 0 for no deadline
+     */
+    public BatchExecutor( final int nParallelism, final long lCallTimeout )
+    {
+        this( nParallelism, lCallTimeout, null );
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param nParallelism
+     *            the maximum number of calls in flight
+     * @param lCallTimeout
+     *            the deadline of each call, in milliseconds, or 0 for no deadline
+     * @param executor
+     *            the executor running the calls, or null for the default executor, shared by all the batches
+     */
+    public BatchExecutor( final int nParallelism, final long lCallTimeout, final Executor executor )
+    {
+        if ( nParallelism < 1 )
+        {
+            throw new IllegalArgumentException( "The parallelism must be at least 1" );
+        }
+        _nParallelism = nParallelism;
+        _lCallTimeout = lCallTimeout;
+        _executor = executor != null ? executor : getDefaultExecutor( );
+    }
+
+    /**
+     * Executes the calls of the items, and waits for all of them, or until the handler is complete. Duplicate items are called once.
+     * 
+     * @param items
+     *            the items
+     * @param calls
+     *            gives the call of an item
+     * @param handler
+     *            receives the outcome of each item, as soon as it is known
+     * @throws IdentityStoreException
+     *             if the batch is interrupted
+     */
+    public <K, R> void execute( final Collection<K> items, final Function<K, ITransportCall<R>> calls, final IBatchResultHandler<K, R> handler )
+            throws IdentityStoreException
+    {
+        final Semaphore permits = new Semaphore( _nParallelism );
+        final Set<BatchTask<?, ?>> tasks = ConcurrentHashMap.newKeySet( );
+
+        try
+        {
+            for ( final K item : new LinkedHashSet<>( items ) )
+            {
+                permits.acquire( );
+                if ( handler.isComplete( ) )
+                {
+                    permits.release( );
+                    break;
+                }
+                final BatchTask<K, R> task = new BatchTask<>( item, calls.apply( item ), handler, permits, tasks );
+                tasks.add( task );
+                try
+                {
+                    _executor.execute( task );
+                }
+                catch( RejectedExecutionException e )
+                {
+                    tasks.remove( task );
+                    permits.release( );
+                    if ( handler.isComplete( ) || isShutdown( ) )
+                    {
+                        // the batch is stopping anyway
+                        break;
+                    }
+                    throw e;
+                }
+            }
+            synchronized( tasks )
+            {
+                while ( !tasks.isEmpty( ) && !handler.isComplete( ) )
+                {
+                    tasks.wait( );
+                }
+            }
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            throw new IdentityStoreException( "LibraryIdentityQuality - Batch interrupted", e );
+        }
+        finally
+        {
+            cancelAll( tasks );
+        }
+    }
+
+    /**
+     * @return true if the executor is shut down, so that it rejects the calls
+     */
+    private boolean isShutdown( )
+    {
+        return _executor instanceof ExecutorService && ( (ExecutorService) _executor ).isShutdown( );
+    }
+
+    /**
+     * Wakes up the thread waiting for the end of a batch
+     * 
+     * @param tasks
+     *            the calls of the batch
+     */
+    private static void signal( final Set<BatchTask<?, ?>> tasks )
+    {
+        synchronized( tasks )
+        {
+            tasks.notifyAll( );
+        }
+    }
+
+    /**
+     * Cancels the calls of a batch which are still queued or in flight
+     * 
+     * @param tasks
+     *            the calls of the batch
+     */
+    private static void cancelAll( final Set<BatchTask<?, ?>> tasks )
+    {
+        for ( final BatchTask<?, ?> task : tasks )
+        {
+            task.cancel( );
+        }
+    }
+
+    /**
+     * @return the default executor, created on first use
+     */
+    private static synchronized Executor getDefaultExecutor( )
+    {
+        if ( _defaultExecutor == null )
+        {
+            _defaultExecutor = Executors.newCachedThreadPool( new DaemonThreadFactory( THREAD_NAME_PREFIX ) );
+        }
+        return _defaultExecutor;
+    }
+
+    /**
+     * @return the timer firing the deadlines, created on first use
+     */
+    private static synchronized ScheduledExecutorService getTimer( )
+    {
+        if ( _timer == null )
+        {
+            _timer = Executors.newSingleThreadScheduledExecutor( new DaemonThreadFactory( TIMER_THREAD_NAME_PREFIX ) );
+        }
+        return _timer;
+    }
+
+    /**
+     * Call of one item, reporting its outcome exactly once : either its result or failure, or its timeout. A cancelled call reports nothing.
+     */
+    private final class BatchTask<K, R> implements Runnable
+    {
+        private final K _item;
+        private final ITransportCall<R> _call;
+        private final IBatchResultHandler<K, R> _handler;
+        private final Semaphore _permits;
+        private final Set<BatchTask<?, ?>> _tasks;
+        private Thread _thread;
+        private boolean _bReported;
+        private boolean _bHandlerCalled;
+
+        BatchTask( final K item, final ITransportCall<R> call, final IBatchResultHandler<K, R> handler, final Semaphore permits,
+                final Set<BatchTask<?, ?>> tasks )
+        {
+            _item = item;
+            _call = call;
+            _handler = handler;
+            _permits = permits;
+            _tasks = tasks;
+        }
+
+        @Override
+        public void run( )
+        {
+            synchronized( this )
+            {
+                if ( _bReported )
+                {
+                    // cancelled before it started
+                    _tasks.remove( this );
+                    signal( _tasks );
+                    _permits.release( );
+                    return;
+                }
+                _thread = Thread.currentThread( );
+            }
+            final ScheduledFuture<?> timeout = _lCallTimeout > 0 ? getTimer( ).schedule( this::timeout, _lCallTimeout, TimeUnit.MILLISECONDS ) : null;
+
+            try
+            {
+                final R result = _call.call( );
+                if ( report( ) )
+                {
+                    _handler.onResult( _item, result );
+                }
+            }
+            catch( IdentityStoreException e )
+            {
+                fail( e );
+            }
+            catch( RuntimeException e )
+            {
+                if ( _bHandlerCalled )
+                {
+                    AppLogService.error( "LibraryIdentityQuality - Error in batch handler : " + e.getMessage( ), e );
+                }
+                else
+                {
+                    fail( new IdentityStoreException( "LibraryIdentityQuality - Error during the call of " + _item + " : " + e.getMessage( ), e ) );
+                }
+            }
+            finally
+            {
+                if ( timeout != null )
+                {
+                    timeout.cancel( false );
+                }
+                synchronized( this )
+                {
+                    _bReported = true;
+                    _thread = null;
+                    // clears an interruption of this call, so that it doesn't affect the next task of the executor thread
+                    Thread.interrupted( );
+                }
+                _tasks.remove( this );
+                if ( _handler.isComplete( ) )
+                {
+                    // interrupts the other calls of the batch, which are no longer needed
+                    cancelAll( _tasks );
+                }
+                signal( _tasks );
+                _permits.release( );
+            }
+        }
+
+        /**
+         * Cancels the call : it is skipped if not started yet, and interrupted otherwise. Its outcome is not reported.
+         */
+        private synchronized void cancel( )
+        {
+            if ( _bReported )
+            {
+                return;
+            }
+            _bReported = true;
+            if ( _thread != null )
+            {
+                _thread.interrupt( );
+            }
+        }
+
+        /**
+         * Reports the timeout of the call, and interrupts it
+         */
+        private void timeout( )
+        {
+            synchronized( this )
+            {
+                if ( _bReported )
+                {
+                    return;
+                }
+                _bReported = true;
+                _thread.interrupt( );
+            }
+            notifyFailure( new IdentityStoreException( "LibraryIdentityQuality - Call of " + _item + " timed out after " + _lCallTimeout + " ms" ) );
+            if ( _handler.isComplete( ) )
+            {
+                cancelAll( _tasks );
+                signal( _tasks );
+            }
+        }
+
+        /**
+         * Reports the failure of the call, unless its timeout is already reported
+         * 
+         * @param e
+         *            the failure
+         */
+        private void fail( final IdentityStoreException e )
+        {
+            if ( report( ) )
+            {
+                notifyFailure( e );
+            }
+        }
+
+        private void notifyFailure( final IdentityStoreException e )
+        {
+            try
+            {
+                _handler.onFailure( _item, e );
+            }
+            catch( RuntimeException eHandler )
+            {
+                AppLogService.error( "LibraryIdentityQuality - Error in batch handler : " + eHandler.getMessage( ), eHandler );
+            }
+        }
+
+        /**
+         * Claims the report of the outcome, by the thread of the call
+         * 
+         * @return true if the outcome of the call is not reported yet, and must be reported by the caller
+         */
+        private synchronized boolean report( )
+        {
+            if ( _bReported )
+            {
+                return false;
+            }
+            _bReported = true;
+            _bHandlerCalled = true;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+
+/**
+ * Outcome of a batch : the results of the items whose call succeeded, and the failures of the others.
+ *
+ * @param <K>
+ *            the type of the items
+ * @param <R>
+ *            the type of the results
+ */
+public class BatchResult<K, R> implements IBatchResultHandler<K, R>
+{
+    private final Map<K, R> _mapResults = Collections.synchronizedMap( new LinkedHashMap<K, R>( ) );
+    private final Map<K, IdentityStoreException> _mapFailures = Collections.synchronizedMap( new LinkedHashMap<K, IdentityStoreException>( ) );
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onResult( final K item, final R result )
+    {
+        _mapResults.put( item, result );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onFailure( final K item, final IdentityStoreException exception )
+    {
+        _mapFailures.put( item, exception );
+    }
+
+    /**
+     * @return the results of the items whose call succeeded, in completion order
+     */
+    public Map<K, R> getResults( )
+    {
+        return _mapResults;
+    }
+
+    /**
+     * @return the failures of the items whose call failed or timed out, in completion order
+     */
+    public Map<K, IdentityStoreException> getFailures( )
+    {
+        return _mapFailures;
+    }
+
+    /**
+     * @return true if no call failed
+     */
+    public boolean isSuccessful( )
+    {
+        return _mapFailures.isEmpty( );
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.RequestAuthor;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentitySearchRequest;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentitySearchResponse;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.duplicate.DuplicateRuleSummarySearchResponse;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.search.DuplicateSearchRequest;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.search.DuplicateSearchResponse;
+import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+/**
+ * Transport provider coalescing identical concurrent read calls : while a read is in flight, the callers making the same read (same operation, request, client
+ * code and author) wait for it and all receive its result instead of sending their own request.<br>
+ * The caller which sent the request receives its result, and each of the other callers a copy of it. Write operations are never coalesced.
+ */
+public class CoalescingTransportProvider extends AbstractTransportProviderDecorator
+{
+    private static final String KEY_SEPARATOR = "\n";
+    private static final String OPERATION_GET_ALL_DUPLICATE_RULES = "getAllDuplicateRules";
+    private static final String OPERATION_GET_SUSPICIOUS_IDENTITIES = "getSuspiciousIdentities";
+    private static final String OPERATION_GET_DUPLICATES = "getDuplicates";
+    private static final String OPERATION_SEARCH_DUPLICATES = "searchDuplicates";
+
+    /** writer of the request bodies used in the keys, with a stable property order */
+    private static final ObjectWriter _keyWriter = new ObjectMapper( ).configure( MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true )
+            .configure( SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true ).writer( );
+
+    private final SingleFlight<String, DuplicateRuleSummarySearchResponse> _duplicateRulesCalls = new SingleFlight<>( );
+    private final SingleFlight<String, SuspiciousIdentitySearchResponse> _suspiciousIdentitiesCalls = new SingleFlight<>( );
+    private final SingleFlight<String, DuplicateSearchResponse> _duplicatesCalls = new SingleFlight<>( );
+
+    /**
+     * Simple Constructor
+     */
+    public CoalescingTransportProvider( )
+    {
+        super( );
+    }
+
+    /**
+     * Constructor with the decorated IIdentityQualityTransportProvider in parameters
+     *
+     * @param transportProvider
+     *            the decorated IIdentityQualityTransportProvider
+     */
+    public CoalescingTransportProvider( final IIdentityQualityTransportProvider transportProvider )
+    {
+        super( transportProvider );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public DuplicateRuleSummarySearchResponse getAllDuplicateRules( final String strClientCode, final RequestAuthor author, final Integer priority )
+            throws IdentityStoreException
+    {
+        final String strKey = buildKey( OPERATION_GET_ALL_DUPLICATE_RULES, String.valueOf( priority ), strClientCode, author );
+        return _duplicateRulesCalls.execute( strKey, ( ) -> _transportProvider.getAllDuplicateRules( strClientCode, author, priority ),
+                ResponseCopier::copy );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public SuspiciousIdentitySearchResponse getSuspiciousIdentities( final SuspiciousIdentitySearchRequest request, final String strClientCode,
+            final RequestAuthor author ) throws IdentityStoreException
+    {
+        final String strBody = serialize( request );
+        if ( strBody == null )
+        {
+            return _transportProvider.getSuspiciousIdentities( request, strClientCode, author );
+        }
+
+        final String strKey = buildKey( OPERATION_GET_SUSPICIOUS_IDENTITIES, strBody, strClientCode, author );
+        return _suspiciousIdentitiesCalls.execute( strKey, ( ) -> _transportProvider.getSuspiciousIdentities( request, strClientCode, author ),
+                ResponseCopier::copy );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public DuplicateSearchResponse getDuplicates( final String customerId, final String ruleCode, final String strClientCode, final RequestAuthor author )
+            throws IdentityStoreException
+    {
+        final String strKey = buildKey( OPERATION_GET_DUPLICATES, customerId + KEY_SEPARATOR + ruleCode, strClientCode, author );
+        return _duplicatesCalls.execute( strKey, ( ) -> _transportProvider.getDuplicates( customerId, ruleCode, strClientCode, author ), ResponseCopier::copy );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public DuplicateSearchResponse searchDuplicates( final DuplicateSearchRequest request, final String strClientCode, final RequestAuthor author )
+            throws IdentityStoreException
+    {
+        final String strBody = serialize( request );
+        if ( strBody == null )
+        {
+            return _transportProvider.searchDuplicates( request, strClientCode, author );
+        }
+
+        final String strKey = buildKey( OPERATION_SEARCH_DUPLICATES, strBody, strClientCode, author );
+        return _duplicatesCalls.execute( strKey, ( ) -> _transportProvider.searchDuplicates( request, strClientCode, author ), ResponseCopier::copy );
+    }
+
+    /**
+     * Builds the key identifying a read call
+     * 
+     * @param strOperation
+     *            the operation, standing for the endpoint
+     * @param strRequest
+     *            the serialized request
+     * @param strClientCode
+     *            the client code
+     * @param author
+     *            the author of the request
+     * @return the key
+     */
+    private static String buildKey( final String strOperation, final String strRequest, final String strClientCode, final RequestAuthor author )
+    {
+        final StringBuilder sbKey = new StringBuilder( strOperation ).append( KEY_SEPARATOR ).append( strClientCode ).append( KEY_SEPARATOR );
+        if ( author != null )
+        {
+            sbKey.append( author.getType( ) ).append( KEY_SEPARATOR ).append( author.getName( ) );
+        }
+        return sbKey.append( KEY_SEPARATOR ).append( strRequest ).toString( );
+    }
+
+    /**
+     * Serializes a request body
+     * 
+     * @param request
+     *            the request
+     * @return the JSON body, or null if it can't be serialized, in which case the call is not coalesced
+     */
+    private static String serialize( final Object request )
+    {
+        try
+        {
+            return _keyWriter.writeValueAsString( request );
+        }
+        catch( JsonProcessingException e )
+        {
+            AppLogService.debug( "LibraryIdentityQuality - Request not coalesced : " + e.getMessage( ) );
+            return null;
+        }
+    }
+}
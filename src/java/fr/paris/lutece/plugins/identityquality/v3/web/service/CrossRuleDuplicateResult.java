@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.IdentityDto;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.ResponseStatus;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.search.DuplicateSearchResponse;
+import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+
+/**
+ * Duplicates of a customer according to several rules : the identities found by any rule, each one once, with the codes of the rules which found it, and the
+ * failures of the rules which could not be checked, including the rules answered with an error status other than "not found".
+ */
+public class CrossRuleDuplicateResult implements IBatchResultHandler<String, DuplicateSearchResponse>
+{
+    private static final int HTTP_SUCCESS_MIN = 200;
+    private static final int HTTP_SUCCESS_MAX = 300;
+    private static final int HTTP_NOT_FOUND = 404;
+
+    private final boolean _bStopOnFirstMatch;
+    private final Map<String, IdentityDto> _mapIdentities = new LinkedHashMap<>( );
+    private final Map<String, Set<String>> _mapMatchingRules = new LinkedHashMap<>( );
+    private final Map<String, IdentityStoreException> _mapFailures = new LinkedHashMap<>( );
+
+    /**
+     * Constructor
+     * 
+     * @param bStopOnFirstMatch
+     *            true if the search can stop as soon as one duplicate is found
+     */
+    public CrossRuleDuplicateResult( final boolean bStopOnFirstMatch )
+    {
+        _bStopOnFirstMatch = bStopOnFirstMatch;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void onResult( final String strRuleCode, final DuplicateSearchResponse response )
+    {
+        if ( response == null )
+        {
+            onFailure( strRuleCode, new IdentityStoreException( "LibraryIdentityQuality - No response for the rule " + strRuleCode ) );
+            return;
+        }
+        final ResponseStatus status = response.getStatus( );
+        if ( status != null && !isChecked( status.getHttpCode( ) ) )
+        {
+            // the error statuses under 500 are answered as a response, not as a failure
+            onFailure( strRuleCode, new IdentityStoreException( "LibraryIdentityQuality - Unable to check the rule " + strRuleCode + " : HTTP "
+                    + status.getHttpCode( ) + ( status.getMessage( ) != null ? " " + status.getMessage( ) : "" ) ) );
+            return;
+        }
+        if ( response.getIdentities( ) == null )
+        {
+            return;
+        }
+
+        for ( final IdentityDto identity : response.getIdentities( ) )
+        {
+            if ( identity != null )
+            {
+                _mapIdentities.putIfAbsent( identity.getCustomerId( ), identity );
+                _mapMatchingRules.computeIfAbsent( identity.getCustomerId( ), k -> new LinkedHashSet<>( ) ).add( strRuleCode );
+            }
+        }
+    }
+
+    /**
+     * Checks whether a response status means that the rule was checked : a success, or "not found" when no duplicate exists
+     * 
+     * @param nHttpCode
+     *            the HTTP code of the status
+     * @return true if the rule was checked
+     */
+    protected boolean isChecked( final int nHttpCode )
+    {
+        return ( nHttpCode >= HTTP_SUCCESS_MIN && nHttpCode < HTTP_SUCCESS_MAX ) || nHttpCode == HTTP_NOT_FOUND;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void onFailure( final String strRuleCode, final IdentityStoreException exception )
+    {
+        if ( isComplete( ) )
+        {
+            // calls interrupted by the early stop
+            return;
+        }
+        _mapFailures.put( strRuleCode, exception );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean isComplete( )
+    {
+        return _bStopOnFirstMatch && !_mapIdentities.isEmpty( );
+    }
+
+    /**
+     * @return true if at least one duplicate was found
+     */
+    public synchronized boolean hasDuplicates( )
+    {
+        return !_mapIdentities.isEmpty( );
+    }
+
+    /**
+     * @return the duplicates found by any rule, each one once
+     */
+    public synchronized List<IdentityDto> getIdentities( )
+    {
+        return new ArrayList<>( _mapIdentities.values( ) );
+    }
+
+    /**
+     * @param strCustomerId
+     *            the customer ID of a duplicate
+     * @return the codes of the rules which found it
+     */
+    public synchronized Set<String> getMatchingRules( final String strCustomerId )
+    {
+        final Set<String> rules = _mapMatchingRules.get( strCustomerId );
+        return rules == null ? Collections.<String> emptySet( ) : new LinkedHashSet<>( rules );
+    }
+
+    /**
+     * @return the failures, by rule code
+     */
+    public synchronized Map<String, IdentityStoreException> getFailures( )
+    {
+        return new LinkedHashMap<>( _mapFailures );
+    }
+}
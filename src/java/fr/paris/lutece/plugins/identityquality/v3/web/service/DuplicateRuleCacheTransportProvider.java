@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.RequestAuthor;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.duplicate.DuplicateRuleSummaryDto;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.duplicate.DuplicateRuleSummarySearchResponse;
+import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+/**
+ * Transport provider caching the duplicate rules returned by the decorated provider.<br>
+ * The full list of rules is fetched once per client code, and the rules of a given priority are filtered from it locally. An entry is fresh during the TTL;
+ * after it, and up to the max stale duration, it is still returned while it is refreshed in background. Only one refresh per client code is in flight at a
+ * time.
+ */
+public class DuplicateRuleCacheTransportProvider extends AbstractTransportProviderDecorator
+{
+    /** default duration during which an entry is fresh, in seconds */
+    private static final long DEFAULT_TTL = 300;
+
+    /** default duration after the TTL during which a stale entry is still returned, in seconds */
+    private static final long DEFAULT_MAX_STALE = 3600;
+
+    private static final String THREAD_NAME_PREFIX = "identityquality-rules-refresh-";
+
+    /** executor shared by the instances without executor */
+    private static Executor _defaultExecutor;
+
+    private final Map<String, CacheEntry> _mapEntries = new ConcurrentHashMap<>( );
+    private final SingleFlight<String, CacheEntry> _loads = new SingleFlight<>( );
+    private long _lTtl = TimeUnit.SECONDS.toMillis( DEFAULT_TTL );
+    private long _lMaxStale = TimeUnit.SECONDS.toMillis( DEFAULT_MAX_STALE );
+    private Executor _executor;
+
+    /**
+     * Simple Constructor
+     */
+    public DuplicateRuleCacheTransportProvider( )
+    {
+        super( );
+    }
+
+    /**
+     * Constructor with the decorated IIdentityQualityTransportProvider in parameters
+     *
+     * @param transportProvider
+     *            the decorated IIdentityQualityTransportProvider
+     */
+    public DuplicateRuleCacheTransportProvider( final IIdentityQualityTransportProvider transportProvider )
+    {
+        super( transportProvider );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public DuplicateRuleSummarySearchResponse getAllDuplicateRules( final String strClientCode, final RequestAuthor author, final Integer priority )
+            throws IdentityStoreException
+    {
+        this.checkCommonHeaders( strClientCode, author );
+
+        final long lNow = System.currentTimeMillis( );
+        CacheEntry entry = _mapEntries.get( strClientCode );
+
+        if ( entry == null || lNow - entry._lLoadTime > _lTtl + _lMaxStale )
+        {
+            entry = _loads.execute( strClientCode, ( ) -> load( strClientCode, author ) );
+        }
+        else
+            if ( lNow - entry._lLoadTime > _lTtl && !_loads.isInFlight( strClientCode ) )
+            {
+                _loads.submit( strClientCode, ( ) -> refresh( strClientCode, author ), getExecutor( ) );
+            }
+
+        return entry == null ? null : filter( entry._response, priority );
+    }
+
+    /**
+     * Empties the cache
+     */
+    public void invalidate( )
+    {
+        _mapEntries.clear( );
+    }
+
+    /**
+     * Sets the duration during which an entry is fresh
+     * 
+     * @param lTtl
+     *            the duration, in seconds
+     */
+    public void setTtl( final long lTtl )
+    {
+        _lTtl = TimeUnit.SECONDS.toMillis( lTtl );
+    }
+
+    /**
+     * Sets the duration after the TTL during which a stale entry is returned while it is refreshed
+     * 
+     * @param lMaxStale
+     *            the duration, in seconds
+     */
+    public void setMaxStale( final long lMaxStale )
+    {
+        _lMaxStale = TimeUnit.SECONDS.toMillis( lMaxStale );
+    }
+
+    /**
+     * setter of executor parameter, used for background refreshes. If no executor is set, a shared thread is used.
+     *
+     * @param executor
+     *            the executor
+     */
+    public void setExecutor( final Executor executor )
+    {
+        _executor = executor;
+    }
+
+    /**
+     * Fetches the full list of rules and caches it if it is valid
+     * 
+     * @param strClientCode
+     *            the client code
+     * @param author
+     *            the author of the request
+     * @return the new entry, or an uncached entry holding the response if it is not valid
+     * @throws IdentityStoreException
+     */
+    private CacheEntry load( final String strClientCode, final RequestAuthor author ) throws IdentityStoreException
+    {
+        final DuplicateRuleSummarySearchResponse response = _transportProvider.getAllDuplicateRules( strClientCode, author, null );
+        final CacheEntry entry = new CacheEntry( response );
+        if ( response != null && response.getDuplicateRuleSummaries( ) != null )
+        {
+            _mapEntries.put( strClientCode, entry );
+        }
+        return entry;
+    }
+
+    /**
+     * Refreshes an entry in background. On failure, the stale entry is kept.
+     * 
+     * @param strClientCode
+     *            the client code
+     * @param author
+     *            the author of the request
+     * @return the new entry
+     * @throws IdentityStoreException
+     */
+    private CacheEntry refresh( final String strClientCode, final RequestAuthor author ) throws IdentityStoreException
+    {
+        try
+        {
+            return load( strClientCode, author );
+        }
+        catch( IdentityStoreException | RuntimeException e )
+        {
+            AppLogService.error( "LibraryIdentityQuality - Error refreshing duplicate rules of client " + strClientCode + " : " + e.getMessage( ), e );
+            throw e;
+        }
+    }
+
+    /**
+     * Filters the rules of the given priority from the full list. The cached response is never returned : the caller gets its own copy, with all the fields
+     * of the cached response.
+     * 
+     * @param response
+     *            the full list
+     * @param priority
+     *            the minimal priority of rules to return, null for all the rules
+     * @return a copy of the response with the filtered rules
+     */
+    private DuplicateRuleSummarySearchResponse filter( final DuplicateRuleSummarySearchResponse response, final Integer priority )
+    {
+        if ( response == null )
+        {
+            return null;
+        }
+
+        final DuplicateRuleSummarySearchResponse filtered = ResponseCopier.copy( response );
+        if ( priority == null || filtered.getDuplicateRuleSummaries( ) == null )
+        {
+            return filtered;
+        }
+
+        final List<DuplicateRuleSummaryDto> rules = new ArrayList<>( );
+        for ( final DuplicateRuleSummaryDto rule : filtered.getDuplicateRuleSummaries( ) )
+        {
+            if ( matchesPriority( rule, priority ) )
+            {
+                rules.add( rule );
+            }
+        }
+        filtered.setDuplicateRuleSummaries( rules );
+        return filtered;
+    }
+
+    /**
+     * Checks whether a rule is returned for the given minimal priority, the same way the identity store does : 1 is the highest priority, so a rule is
+     * returned if its priority value is lower than or equal to the given one.
+     * 
+     * @param rule
+     *            the rule
+     * @param priority
+     *            the minimal priority
+     * @return true if the rule is returned
+     */
+    protected boolean matchesPriority( final DuplicateRuleSummaryDto rule, final Integer priority )
+    {
+        final Integer rulePriority = rule.getPriority( );
+        return rulePriority != null && rulePriority <= priority;
+    }
+
+    /**
+     * @return the executor of the background refreshes
+     */
+    private Executor getExecutor( )
+    {
+        if ( _executor != null )
+        {
+            return _executor;
+        }
+        return getDefaultExecutor( );
+    }
+
+    /**
+     * @return the default executor, created on first use
+     */
+    private static synchronized Executor getDefaultExecutor( )
+    {
+        if ( _defaultExecutor == null )
+        {
+            _defaultExecutor = Executors.newSingleThreadExecutor( new DaemonThreadFactory( THREAD_NAME_PREFIX ) );
+        }
+        return _defaultExecutor;
+    }
+
+    /**
+     * Cached full list of rules, with its load time
+     */
+    private static final class CacheEntry
+    {
+        private final DuplicateRuleSummarySearchResponse _response;
+        private final long _lLoadTime = System.currentTimeMillis( );
+
+        CacheEntry( final DuplicateRuleSummarySearchResponse response )
+        {
+            _response = response;
+        }
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.IdentityDto;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.RequestAuthor;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentityChangeRequest;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentityChangeResponse;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentityExcludeRequest;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentityExcludeResponse;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.lock.SuspiciousIdentityLockRequest;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.lock.SuspiciousIdentityLockResponse;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.search.DuplicateSearchResponse;
+import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+
+/**
+ * Transport provider caching the duplicates of a customer returned by the decorated provider, per client code, customer and rule.<br>
+ * The cache is bounded in size (least recently used entries are evicted first) and in time. The entries concerning a customer (as searched customer or as
+ * duplicate) are dropped when an exclusion, a cancellation of exclusion, a lock or a suspicious identity creation for this customer goes through this provider.<br>
+ * Each caller gets its own copy of the cached response.
+ */
+public class DuplicateSearchCacheTransportProvider extends AbstractTransportProviderDecorator
+{
+    /** default maximum number of entries */
+    private static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /** default duration during which an entry is valid, in seconds */
+    private static final long DEFAULT_TTL = 60;
+
+    private Map<CacheKey, CacheEntry> _mapEntries = newEntries( DEFAULT_MAX_ENTRIES );
+    private long _lTtl = TimeUnit.SECONDS.toMillis( DEFAULT_TTL );
+
+    /** incremented on each invalidation, so that responses loaded concurrently are not cached */
+    private final AtomicLong _lInvalidations = new AtomicLong( );
+    private final LongAdder _hits = new LongAdder( );
+    private final LongAdder _misses = new LongAdder( );
+
+    /**
+     * Simple Constructor
+     */
+    public DuplicateSearchCacheTransportProvider( )
+    {
+        super( );
+    }
+
+    /**
+     * Constructor with the decorated IIdentityQualityTransportProvider in parameters
+     *
+     * @param transportProvider
+     *            the decorated IIdentityQualityTransportProvider
+     */
+    public DuplicateSearchCacheTransportProvider( final IIdentityQualityTransportProvider transportProvider )
+    {
+        super( transportProvider );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public DuplicateSearchResponse getDuplicates( final String customerId, final String ruleCode, final String strClientCode, final RequestAuthor author )
+            throws IdentityStoreException
+    {
+        this.checkCommonHeaders( strClientCode, author );
+
+        final CacheKey key = new CacheKey( strClientCode, customerId, ruleCode );
+        final Map<CacheKey, CacheEntry> mapEntries = _mapEntries;
+
+        final CacheEntry entry;
+        synchronized( mapEntries )
+        {
+            entry = mapEntries.get( key );
+        }
+        if ( entry != null && System.currentTimeMillis( ) - entry._lLoadTime <= _lTtl )
+        {
+            _hits.increment( );
+            // the cached response is never handed out, so that the callers can't alter the cache
+            return ResponseCopier.copy( entry._response );
+        }
+        _misses.increment( );
+
+        final long lInvalidations = _lInvalidations.get( );
+        final DuplicateSearchResponse response = _transportProvider.getDuplicates( customerId, ruleCode, strClientCode, author );
+
+        if ( response != null && response.getIdentities( ) != null )
+        {
+            final CacheEntry newEntry = new CacheEntry( customerId, ResponseCopier.copy( response ) );
+            synchronized( mapEntries )
+            {
+                if ( lInvalidations == _lInvalidations.get( ) )
+                {
+                    mapEntries.put( key, newEntry );
+                }
+            }
+        }
+        return response;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public SuspiciousIdentityChangeResponse createSuspiciousIdentity( final SuspiciousIdentityChangeRequest request, final String strClientCode,
+            final RequestAuthor author ) throws IdentityStoreException
+    {
+        try
+        {
+            return _transportProvider.createSuspiciousIdentity( request, strClientCode, author );
+        }
+        finally
+        {
+            if ( request != null && request.getSuspiciousIdentity( ) != null )
+            {
+                invalidate( request.getSuspiciousIdentity( ).getCustomerId( ) );
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public SuspiciousIdentityExcludeResponse excludeIdentities( final SuspiciousIdentityExcludeRequest request, final String strClientCode,
+            final RequestAuthor author ) throws IdentityStoreException
+    {
+        try
+        {
+            return _transportProvider.excludeIdentities( request, strClientCode, author );
+        }
+        finally
+        {
+            if ( request != null )
+            {
+                invalidate( request.getIdentityCuid1( ), request.getIdentityCuid2( ) );
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public SuspiciousIdentityExcludeResponse cancelIdentitiesExclusion( final SuspiciousIdentityExcludeRequest request, final String strClientCode,
+            final RequestAuthor author ) throws IdentityStoreException
+    {
+        try
+        {
+            return _transportProvider.cancelIdentitiesExclusion( request, strClientCode, author );
+        }
+        finally
+        {
+            if ( request != null )
+            {
+                invalidate( request.getIdentityCuid1( ), request.getIdentityCuid2( ) );
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public SuspiciousIdentityLockResponse lock( final SuspiciousIdentityLockRequest request, final String strClientCode, final RequestAuthor author )
+            throws IdentityStoreException
+    {
+        try
+        {
+            return _transportProvider.lock( request, strClientCode, author );
+        }
+        finally
+        {
+            if ( request != null )
+            {
+                invalidate( request.getCustomerId( ) );
+            }
+        }
+    }
+
+    /**
+     * Drops the entries concerning the given customers, as searched customer or as duplicate
+     * 
+     * @param customerIds
+     *            the customer ids
+     */
+    public void invalidate( final String... customerIds )
+    {
+        final Collection<String> ids = Arrays.asList( customerIds );
+        final Map<CacheKey, CacheEntry> mapEntries = _mapEntries;
+
+        synchronized( mapEntries )
+        {
+            _lInvalidations.incrementAndGet( );
+            final Iterator<CacheEntry> iterator = mapEntries.values( ).iterator( );
+            while ( iterator.hasNext( ) )
+            {
+                if ( iterator.next( ).concerns( ids ) )
+                {
+                    iterator.remove( );
+                }
+            }
+        }
+    }
+
+    /**
+     * Empties the cache
+     */
+    public void invalidateAll( )
+    {
+        final Map<CacheKey, CacheEntry> mapEntries = _mapEntries;
+
+        synchronized( mapEntries )
+        {
+            _lInvalidations.incrementAndGet( );
+            mapEntries.clear( );
+        }
+    }
+
+    /**
+     * Sets the maximum number of entries. The cache is emptied.
+     * 
+     * @param nMaxEntries
+     *            the maximum number of entries
+     */
+    public void setMaxEntries( final int nMaxEntries )
+    {
+        _lInvalidations.incrementAndGet( );
+        _mapEntries = newEntries( nMaxEntries );
+    }
+
+    /**
+     * Sets the duration during which an entry is valid
+     * 
+     * @param lTtl
+     *            the duration, in seconds
+     */
+    public void setTtl( final long lTtl )
+    {
+        _lTtl = TimeUnit.SECONDS.toMillis( lTtl );
+    }
+
+    /**
+     * @return the number of calls served from the cache
+     */
+    public long getHitCount( )
+    {
+        return _hits.sum( );
+    }
+
+    /**
+     * @return the number of calls forwarded to the decorated provider
+     */
+    public long getMissCount( )
+    {
+        return _misses.sum( );
+    }
+
+    /**
+     * @return the ratio of calls served from the cache, between 0 and 1
+     */
+    public double getHitRatio( )
+    {
+        final long lHits = getHitCount( );
+        final long lTotal = lHits + getMissCount( );
+        return lTotal == 0 ? 0 : (double) lHits / lTotal;
+    }
+
+    /**
+     * @return the number of entries in the cache, expired ones included
+     */
+    public int size( )
+    {
+        final Map<CacheKey, CacheEntry> mapEntries = _mapEntries;
+
+        synchronized( mapEntries )
+        {
+            return mapEntries.size( );
+        }
+    }
+
+    /**
+     * Creates the LRU map of the entries
+     * 
+     * @param nMaxEntries
+     *            the maximum number of entries
+     * @return the map, to be accessed under its own lock
+     */
+    private static Map<CacheKey, CacheEntry> newEntries( final int nMaxEntries )
+    {
+        return new LinkedHashMap<CacheKey, CacheEntry>( 16, 0.75f, true )
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry( final Map.Entry<CacheKey, CacheEntry> eldest )
+            {
+                return size( ) > nMaxEntries;
+            }
+        };
+    }
+
+    /**
+     * Key of an entry
+     */
+    private static final class CacheKey
+    {
+        private final String _strClientCode;
+        private final String _strCustomerId;
+        private final String _strRuleCode;
+
+        CacheKey( final String strClientCode, final String strCustomerId, final String strRuleCode )
+        {
+            _strClientCode = strClientCode;
+            _strCustomerId = strCustomerId;
+            _strRuleCode = strRuleCode;
+        }
+
+        @Override
+        public boolean equals( final Object o )
+        {
+            if ( this == o )
+            {
+                return true;
+            }
+            if ( !( o instanceof CacheKey ) )
+            {
+                return false;
+            }
+            final CacheKey other = (CacheKey) o;
+            return Objects.equals( _strClientCode, other._strClientCode ) && Objects.equals( _strCustomerId, other._strCustomerId )
+                    && Objects.equals( _strRuleCode, other._strRuleCode );
+        }
+
+        @Override
+        public int hashCode( )
+        {
+            return Objects.hash( _strClientCode, _strCustomerId, _strRuleCode );
+        }
+    }
+
+    /**
+     * Cached duplicates of a customer, with their load time
+     */
+    private static final class CacheEntry
+    {
+        private final String _strCustomerId;
+        private final DuplicateSearchResponse _response;
+        private final long _lLoadTime = System.currentTimeMillis( );
+
+        CacheEntry( final String strCustomerId, final DuplicateSearchResponse response )
+        {
+            _strCustomerId = strCustomerId;
+            _response = response;
+        }
+
+        /**
+         * @param customerIds
+         *            customer ids
+         * @return true if one of the customers is the searched customer or one of its duplicates
+         */
+        boolean concerns( final Collection<String> customerIds )
+        {
+            if ( customerIds.contains( _strCustomerId ) )
+            {
+                return true;
+            }
+            for ( final IdentityDto identity : _response.getIdentities( ) )
+            {
+                if ( identity != null && customerIds.contains( identity.getCustomerId( ) ) )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+
+/**
+ * Transport provider sharing the capacity of the decorated provider between the client codes :
+ * <ul>
+ * <li>each client code is rate limited by a token bucket</li>
+ * <li>the number of calls in flight is bounded; when it is reached, the waiting calls are granted by weighted fair queuing between the client codes, the
+ * interactive operations (see {@link TransportOperation#isInteractive()}) before the bulk ones</li>
+ * </ul>
+ * A call which can't get a token or a slot within the maximum wait fails with an {@link IdentityStoreException}.
+ */
+public class FairSchedulingTransportProvider extends AbstractTransportProviderDecorator
+{
+    private static final int DEFAULT_MAX_CONCURRENT_CALLS = 20;
+    private static final long DEFAULT_MAX_WAIT = 5000;
+    private static final int DEFAULT_WEIGHT = 1;
+
+    private final ConcurrentMap<String, TokenBucket> _mapBuckets = new ConcurrentHashMap<>( );
+    private double _dRate;
+    private int _nBurst = 1;
+    private Map<String, Double> _mapRates = new HashMap<>( );
+    private Map<String, Integer> _mapWeights = new HashMap<>( );
+    private int _nMaxConcurrentCalls = DEFAULT_MAX_CONCURRENT_CALLS;
+    private long _lMaxWait = DEFAULT_MAX_WAIT;
+
+    /** scheduler state, guarded by _lock */
+    private final Object _lock = new Object( );
+    private int _nInFlight;
+    private int _nWaiting;
+    private final Map<String, Deque<Waiter>> _mapInteractiveQueues = new HashMap<>( );
+    private final Map<String, Deque<Waiter>> _mapBulkQueues = new HashMap<>( );
+    private final Map<String, Double> _mapVirtualTimes = new HashMap<>( );
+    private double _dVirtualTime;
+
+    /**
+     * Simple Constructor
+     */
+    public FairSchedulingTransportProvider( )
+    {
+        super( );
+    }
+
+    /**
+     * Constructor with the decorated IIdentityQualityTransportProvider in parameters
+     *
+     * @param transportProvider
+     *            the decorated IIdentityQualityTransportProvider
+     */
+    public FairSchedulingTransportProvider( final IIdentityQualityTransportProvider transportProvider )
+    {
+        super( transportProvider );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    protected <R> R invoke( final TransportOperation operation, final String strClientCode, final ITransportCall<R> call ) throws IdentityStoreException
+    {
+        final long lDeadline = System.nanoTime( ) + TimeUnit.MILLISECONDS.toNanos( _lMaxWait );
+        takeToken( operation, strClientCode, lDeadline );
+        acquireSlot( operation, String.valueOf( strClientCode ), lDeadline );
+        try
+        {
+            return call.call( );
+        }
+        finally
+        {
+            releaseSlot( );
+        }
+    }
+
+    /**
+     * Waits for a token of the bucket of the client code
+     * 
+     * @throws IdentityStoreException
+     *             if no token is available before the deadline, or if interrupted
+     */
+    private void takeToken( final TransportOperation operation, final String strClientCode, final long lDeadline ) throws IdentityStoreException
+    {
+        final double dRate = _mapRates.getOrDefault( strClientCode, _dRate );
+        if ( dRate <= 0 )
+        {
+            return;
+        }
+
+        final TokenBucket bucket = _mapBuckets.computeIfAbsent( String.valueOf( strClientCode ), c -> new TokenBucket( dRate, _nBurst ) );
+        final long lWait = bucket.reserve( lDeadline - System.nanoTime( ) );
+        if ( lWait < 0 )
+        {
+            throw new IdentityStoreException( "LibraryIdentityQuality - Call of " + operation + " rejected : rate limit of client " + strClientCode
+                    + " exceeded" );
+        }
+        try
+        {
+            TimeUnit.NANOSECONDS.sleep( lWait );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            throw new IdentityStoreException( "LibraryIdentityQuality - Interrupted while waiting for the rate limit", e );
+        }
+    }
+
+    /**
+     * Waits for a slot among the calls in flight
+     * 
+     * @throws IdentityStoreException
+     *             if no slot is granted before the deadline, or if interrupted
+     */
+    private void acquireSlot( final TransportOperation operation, final String strClientCode, final long lDeadline ) throws IdentityStoreException
+    {
+        synchronized( _lock )
+        {
+            if ( _nInFlight < _nMaxConcurrentCalls && _nWaiting == 0 )
+            {
+                _nInFlight++;
+                return;
+            }
+
+            final Map<String, Deque<Waiter>> mapQueues = operation.isInteractive( ) ? _mapInteractiveQueues : _mapBulkQueues;
+            Deque<Waiter> queue = mapQueues.get( strClientCode );
+            if ( queue == null )
+            {
+                queue = new ArrayDeque<>( );
+                mapQueues.put( strClientCode, queue );
+                // a client code becoming backlogged starts from the current virtual time, without credit for its idle period
+                _mapVirtualTimes.put( strClientCode, Math.max( _mapVirtualTimes.getOrDefault( strClientCode, 0d ), _dVirtualTime ) );
+            }
+            final Waiter waiter = new Waiter( );
+            queue.add( waiter );
+            _nWaiting++;
+            grant( );
+
+            boolean bAcquired = false;
+            try
+            {
+                while ( !waiter._bGranted )
+                {
+                    final long lRemaining = lDeadline - System.nanoTime( );
+                    if ( lRemaining <= 0 )
+                    {
+                        throw new IdentityStoreException( "LibraryIdentityQuality - Call of " + operation + " rejected : no capacity available for client "
+                                + strClientCode );
+                    }
+                    TimeUnit.NANOSECONDS.timedWait( _lock, lRemaining );
+                }
+                bAcquired = true;
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread( ).interrupt( );
+                throw new IdentityStoreException( "LibraryIdentityQuality - Interrupted while waiting for capacity", e );
+            }
+            finally
+            {
+                if ( !bAcquired )
+                {
+                    if ( waiter._bGranted )
+                    {
+                        // granted while giving up : the slot goes to the next waiting call
+                        _nInFlight--;
+                        grant( );
+                    }
+                    else
+                    {
+                        remove( mapQueues, strClientCode, waiter );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Ends a call, and grants its slot to a waiting call
+     */
+    private void releaseSlot( )
+    {
+        synchronized( _lock )
+        {
+            _nInFlight--;
+            grant( );
+        }
+    }
+
+    /**
+     * Grants the free slots to the waiting calls : the interactive ones first, then, within a class, the head call of the client code with the lowest virtual
+     * time, whose virtual time then grows by the inverse of its weight
+     */
+    private void grant( )
+    {
+        boolean bGranted = false;
+        while ( _nInFlight < _nMaxConcurrentCalls && _nWaiting > 0 )
+        {
+            final Map<String, Deque<Waiter>> mapQueues = _mapInteractiveQueues.isEmpty( ) ? _mapBulkQueues : _mapInteractiveQueues;
+
+            String strNextClientCode = null;
+            double dNextVirtualTime = Double.MAX_VALUE;
+            for ( final String strClientCode : mapQueues.keySet( ) )
+            {
+                final double dVirtualTime = _mapVirtualTimes.get( strClientCode );
+                if ( dVirtualTime < dNextVirtualTime )
+                {
+                    strNextClientCode = strClientCode;
+                    dNextVirtualTime = dVirtualTime;
+                }
+            }
+
+            final Waiter waiter = mapQueues.get( strNextClientCode ).peek( );
+            remove( mapQueues, strNextClientCode, waiter );
+            waiter._bGranted = true;
+            _nInFlight++;
+            _dVirtualTime = dNextVirtualTime;
+            _mapVirtualTimes.put( strNextClientCode, dNextVirtualTime + 1d / _mapWeights.getOrDefault( strNextClientCode, DEFAULT_WEIGHT ) );
+            bGranted = true;
+        }
+        if ( bGranted )
+        {
+            _lock.notifyAll( );
+        }
+    }
+
+    /**
+     * Removes a waiting call from its queue
+     */
+    private void remove( final Map<String, Deque<Waiter>> mapQueues, final String strClientCode, final Waiter waiter )
+    {
+        final Deque<Waiter> queue = mapQueues.get( strClientCode );
+        if ( queue != null && queue.remove( waiter ) )
+        {
+            _nWaiting--;
+            if ( queue.isEmpty( ) )
+            {
+                mapQueues.remove( strClientCode );
+            }
+        }
+    }
+
+    /**
+     * @return the number of calls in flight
+     */
+    public int getInFlight( )
+    {
+        synchronized( _lock )
+        {
+            return _nInFlight;
+        }
+    }
+
+    /**
+     * @return the number of calls waiting for a slot
+     */
+    public int getWaiting( )
+    {
+        synchronized( _lock )
+        {
+            return _nWaiting;
+        }
+    }
+
+    /**
+     * Sets the default rate of calls of a client code
+     * 
+     * @param dRate
+     *            the number of calls per second, 0 (default) for no limit
+     */
+    public void setRate( final double dRate )
+    {
+        _dRate = dRate;
+        _mapBuckets.clear( );
+    }
+
+    /**
+     * Sets the rate of calls of some client codes
+     * 
+     * @param mapRates
+     *            the number of calls per second, by client code
+     */
+    public void setRates( final Map<String, Double> mapRates )
+    {
+        _mapRates = new HashMap<>( mapRates );
+        _mapBuckets.clear( );
+    }
+
+    /**
+     * Sets the number of calls a client code can make at once, above its rate, after an idle period
+     * 
+     * @param nBurst
+     *            the size of the token buckets
+     */
+    public void setBurst( final int nBurst )
+    {
+        _nBurst = nBurst;
+        _mapBuckets.clear( );
+    }
+
+    /**
+     * Sets the share of the capacity of some client codes, when the capacity is saturated. The default weight is 1.
+     * 
+     * @param mapWeights
+     *            the weights, by client code
+     */
+    public void setWeights( final Map<String, Integer> mapWeights )
+    {
+        _mapWeights = new HashMap<>( mapWeights );
+    }
+
+    /**
+     * Sets the maximum number of calls in flight, all client codes together
+     * 
+     * @param nMaxConcurrentCalls
+     *            the number of calls
+     */
+    public void setMaxConcurrentCalls( final int nMaxConcurrentCalls )
+    {
+        synchronized( _lock )
+        {
+            _nMaxConcurrentCalls = nMaxConcurrentCalls;
+            grant( );
+        }
+    }
+
+    /**
+     * Sets the time a call waits for a token and a slot before being rejected
+     * 
+     * @param lMaxWait
+     *            the time, in milliseconds
+     */
+    public void setMaxWait( final long lMaxWait )
+    {
+        _lMaxWait = lMaxWait;
+    }
+
+    /**
+     * A call waiting for a slot
+     */
+    private static final class Waiter
+    {
+        private boolean _bGranted;
+    }
+
+    /**
+     * Token bucket, refilled continuously at its rate. Tokens may be reserved ahead, the caller then waiting for their refill.
+     */
+    private static final class TokenBucket
+    {
+        private final double _dRatePerNano;
+        private final double _dCapacity;
+        private double _dTokens;
+        private long _lLastRefill = System.nanoTime( );
+
+        TokenBucket( final double dRate, final int nCapacity )
+        {
+            _dRatePerNano = dRate / TimeUnit.SECONDS.toNanos( 1 );
+            _dCapacity = Math.max( 1, nCapacity );
+            _dTokens = _dCapacity;
+        }
+
+        /**
+         * Reserves a token
+         * 
+         * @param lMaxWait
+         *            the maximum time to wait for the token, in nanoseconds
+         * @return the time to wait for the token, in nanoseconds, or -1 if it exceeds the maximum wait, in which case nothing is reserved
+         */
+        synchronized long reserve( final long lMaxWait )
+        {
+            final long lNow = System.nanoTime( );
+            _dTokens = Math.min( _dCapacity, _dTokens + ( lNow - _lLastRefill ) * _dRatePerNano );
+            _lLastRefill = lNow;
+
+            final long lWait = _dTokens >= 1 ? 0 : (long) Math.ceil( ( 1 - _dTokens ) / _dRatePerNano );
+            if ( lWait > lMaxWait )
+            {
+                return -1;
+            }
+            _dTokens -= 1;
+            return lWait;
+        }
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.IdentityDto;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.RequestAuthor;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentityChangeRequest;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentityChangeResponse;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentityExcludeRequest;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentityExcludeResponse;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentitySearchRequest;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentitySearchResponse;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.duplicate.DuplicateRuleSummarySearchResponse;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.lock.SuspiciousIdentityLockRequest;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.lock.SuspiciousIdentityLockResponse;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.search.DuplicateSearchRequest;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.search.DuplicateSearchResponse;
+import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+
+/**
+ * Asynchronous service regarding identity quality.<br>
+ * Each method submits the call to the executor and returns immediately, so that independent calls can be issued concurrently. The returned future is completed
+ * with the response, or exceptionally with the {@link IdentityStoreException} raised by the transport.
+ */
+public class IdentityQualityAsyncService
+{
+    /** number of threads of the default executor */
+    private static final int DEFAULT_THREAD_POOL_SIZE = 10;
+    private static final String THREAD_NAME_PREFIX = "identityquality-async-";
+
+    /** default executor, shared by the instances without executor */
+    private static Executor _defaultExecutor;
+
+    /** transport provider */
+    private IIdentityQualityTransportProvider _transportProvider;
+
+    /** executor of the calls */
+    private Executor _executor;
+
+    /**
+     * Simple Constructor
+     */
+    public IdentityQualityAsyncService( )
+    {
+        super( );
+    }
+
+    /**
+     * Constructor with IIdentityQualityTransportProvider in parameters
+     *
+     * @param transportProvider
+     *            IIdentityQualityTransportProvider
+     */
+    public IdentityQualityAsyncService( final IIdentityQualityTransportProvider transportProvider )
+    {
+        super( );
+        this._transportProvider = transportProvider;
+    }
+
+    /**
+     * Constructor with IIdentityQualityTransportProvider and Executor in parameters
+     *
+     * @param transportProvider
+     *            IIdentityQualityTransportProvider
+     * @param executor
+     *            the executor of the calls
+     */
+    public IdentityQualityAsyncService( final IIdentityQualityTransportProvider transportProvider, final Executor executor )
+    {
+        super( );
+        this._transportProvider = transportProvider;
+        this._executor = executor;
+    }
+
+    /**
+     * setter of transportProvider parameter
+     *
+     * @param transportProvider
+     *            IIdentityQualityTransportProvider
+     */
+    public void setTransportProvider( final IIdentityQualityTransportProvider transportProvider )
+    {
+        this._transportProvider = transportProvider;
+    }
+
+    /**
+     * setter of executor parameter. If no executor is set, a shared pool of {@value #DEFAULT_THREAD_POOL_SIZE} threads is used.
+     *
+     * @param executor
+     *            the executor of the calls
+     */
+    public void setExecutor( final Executor executor )
+    {
+        this._executor = executor;
+    }
+
+    /**
+     * Report a suspicious identity
+     * 
+     * @param request
+     * @param strClientCode
+     *            the client code
+     * @param author
+     *            the author of the request
+     * @return the future SuspiciousIdentityChangeResponse
+     */
+    public CompletableFuture<SuspiciousIdentityChangeResponse> createSuspiciousIdentity( final SuspiciousIdentityChangeRequest request,
+            final String strClientCode, final RequestAuthor author )
+    {
+        return submit( ( ) -> this._transportProvider.createSuspiciousIdentity( request, strClientCode, author ) );
+    }
+
+    /**
+     * Get full list of duplicate rules.
+     *
+     * @param strClientCode
+     *            the client code
+     * @param author
+     *            the author of the request
+     * @param priority
+     *            - the minimal priority of rules to return
+     * @return the future DuplicateRuleSummarySearchResponse containing a list of <code>DuplicateRuleSummaryDto</code>.
+     */
+    public CompletableFuture<DuplicateRuleSummarySearchResponse> getAllDuplicateRules( final String strClientCode, final RequestAuthor author,
+            final Integer priority )
+    {
+        return submit( ( ) -> this._transportProvider.getAllDuplicateRules( strClientCode, author, priority ) );
+    }
+
+    /**
+     * Get list of suspicious identities for a given request
+     *
+     * @param request
+     *            the SuspiciousIdentitySearchRequest
+     * @param strClientCode
+     *            the client code
+     * @param author
+     *            the author of the request
+     * @return the future SuspiciousIdentitySearchResponse containing a list of SuspiciousIdentityDto
+     */
+    public CompletableFuture<SuspiciousIdentitySearchResponse> getSuspiciousIdentities( final SuspiciousIdentitySearchRequest request,
+            final String strClientCode, final RequestAuthor author )
+    {
+        return submit( ( ) -> this._transportProvider.getSuspiciousIdentities( request, strClientCode, author ) );
+    }
+
+    /**
+     * Get list of identities that are duplicates of the provided customerId's identity, according to the provided rule ID.
+     * 
+     * @param customerId
+     *            the customer ID of the identity
+     * @param ruleCode
+     *            the rule code
+     * @param strClientCode
+     *            the client code
+     * @param author
+     *            the author of the request
+     * @return the future DuplicateSearchResponse containing a list of {@link IdentityDto}
+     */
+    public CompletableFuture<DuplicateSearchResponse> getDuplicates( final String customerId, final String ruleCode, final String strClientCode,
+            final RequestAuthor author )
+    {
+        return submit( ( ) -> this._transportProvider.getDuplicates( customerId, ruleCode, strClientCode, author ) );
+    }
+
+    /**
+     * Get list of identities that are potential duplicates of the provided virtual identity (list of attributes), according to the provided rule codes.
+     *
+     * @param request
+     *            the duplicate search request
+     * @param strClientCode
+     *            the client code
+     * @param author
+     *            the author of the request
+     * @return the future DuplicateSearchResponse containing a list of {@link IdentityDto}
+     */
+    public CompletableFuture<DuplicateSearchResponse> searchDuplicates( final DuplicateSearchRequest request, final String strClientCode,
+            final RequestAuthor author )
+    {
+        return submit( ( ) -> this._transportProvider.searchDuplicates( request, strClientCode, author ) );
+    }
+
+    /**
+     * Exclude identities from duplicate suspicions.
+     * 
+     * @param request
+     *            a valid SuspiciousIdentityExcludeRequest
+     * @param strClientCode
+     *            the client code
+     * @param author
+     *            the author of the request
+     * @return the future SuspiciousIdentityExcludeResponse containing the status of the exclusion
+     */
+    public CompletableFuture<SuspiciousIdentityExcludeResponse> excludeIdentities( final SuspiciousIdentityExcludeRequest request, final String strClientCode,
+            final RequestAuthor author )
+    {
+        return submit( ( ) -> this._transportProvider.excludeIdentities( request, strClientCode, author ) );
+    }
+
+    /**
+     * Cancel identities exclusion from duplicate suspicions.
+     *
+     * @param request
+     *            a valid SuspiciousIdentityExcludeRequest
+     * @param strClientCode
+     *            the client code
+     * @param author
+     *            the author of the request
+     * @return the future SuspiciousIdentityExcludeResponse containing the status of the exclusion
+     */
+    public CompletableFuture<SuspiciousIdentityExcludeResponse> cancelIdentitiesExclusion( final SuspiciousIdentityExcludeRequest request,
+            final String strClientCode, final RequestAuthor author )
+    {
+        return submit( ( ) -> this._transportProvider.cancelIdentitiesExclusion( request, strClientCode, author ) );
+    }
+
+    /**
+     * Lock duplicate suspicions.
+     *
+     * @param request
+     *            a valid {@link SuspiciousIdentityLockRequest}
+     * @param strClientCode
+     *            the client code
+     * @param author
+     *            the author of the request
+     * @return the future SuspiciousIdentityLockResponse containing the status of the lock
+     */
+    public CompletableFuture<SuspiciousIdentityLockResponse> lockIdentity( final SuspiciousIdentityLockRequest request, final String strClientCode,
+            final RequestAuthor author )
+    {
+        return submit( ( ) -> this._transportProvider.lock( request, strClientCode, author ) );
+    }
+
+    /**
+     * Submits the call to the executor
+     * 
+     * @param call
+     *            the call
+     * @return the future result
+     */
+    private <R> CompletableFuture<R> submit( final ITransportCall<R> call )
+    {
+        return supply( call, getExecutor( ) );
+    }
+
+    /**
+     * Submits the call to an executor. The task is a {@link Future} : an executor cancelling it instead of running it, as {@link VirtualThreadExecutor} does
+     * when interrupted, completes the returned future with a {@link RejectedExecutionException}.
+     * 
+     * @param call
+     *            the call
+     * @param executor
+     *            the executor
+     * @return the future result
+     */
+    static <R> CompletableFuture<R> supply( final ITransportCall<R> call, final Executor executor )
+    {
+        final CompletableFuture<R> future = new CompletableFuture<>( );
+        try
+        {
+            executor.execute( new FutureTask<R>( call::call )
+            {
+                @Override
+                protected void done( )
+                {
+                    // any outcome, errors included, completes the future : its callers never wait forever
+                    if ( isCancelled( ) )
+                    {
+                        future.completeExceptionally( new RejectedExecutionException( "LibraryIdentityQuality - Call cancelled by the executor" ) );
+                        return;
+                    }
+                    try
+                    {
+                        future.complete( get( ) );
+                    }
+                    catch( ExecutionException e )
+                    {
+                        future.completeExceptionally( e.getCause( ) );
+                    }
+                    catch( InterruptedException e )
+                    {
+                        Thread.currentThread( ).interrupt( );
+                        future.completeExceptionally( e );
+                    }
+                }
+            } );
+        }
+        catch( RejectedExecutionException e )
+        {
+            future.completeExceptionally( e );
+        }
+        return future;
+    }
+
+    /**
+     * @return the executor of the calls
+     */
+    private Executor getExecutor( )
+    {
+        if ( _executor != null )
+        {
+            return _executor;
+        }
+        return getDefaultExecutor( );
+    }
+
+    /**
+     * @return the default executor, created on first use
+     */
+    static synchronized Executor getDefaultExecutor( )
+    {
+        if ( _defaultExecutor == null )
+        {
+            _defaultExecutor = Executors.newFixedThreadPool( DEFAULT_THREAD_POOL_SIZE, new DaemonThreadFactory( THREAD_NAME_PREFIX ) );
+        }
+        return _defaultExecutor;
+    }
+}
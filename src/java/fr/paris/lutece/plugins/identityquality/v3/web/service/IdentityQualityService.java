@@ -33,14 +33,28 @@
  */
 package fr.paris.lutece.plugins.identityquality.v3.web.service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.SuspiciousIdentityRequestValidator;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.IdentityDto;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.RequestAuthor;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentityChangeRequest;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentityChangeResponse;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentityDto;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentityExcludeRequest;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentityExcludeResponse;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentitySearchRequest;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentitySearchResponse;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.duplicate.DuplicateRuleSummaryDto;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.duplicate.DuplicateRuleSummarySearchResponse;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.lock.SuspiciousIdentityLockRequest;
 import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.lock.SuspiciousIdentityLockResponse;
@@ -54,9 +68,21 @@ import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreExceptio
 public class IdentityQualityService
 {
 
+    /** default maximum number of calls in flight in a batch */
+    private static final int DEFAULT_BATCH_PARALLELISM = 8;
+
+    /** default deadline of each call of a batch, in milliseconds */
+    private static final long DEFAULT_BATCH_CALL_TIMEOUT = 30000;
+
     /** transport provider */
     private IIdentityQualityTransportProvider _transportProvider;
 
+    /** executor of the background calls and of the batch calls, the ones of {@link IdentityQualityAsyncService} and {@link BatchExecutor} by default */
+    private Executor _executor;
+
+    private int _nBatchParallelism = DEFAULT_BATCH_PARALLELISM;
+    private long _lBatchCallTimeout = DEFAULT_BATCH_CALL_TIMEOUT;
+
 
     		
     /**
@@ -91,6 +117,40 @@ public class IdentityQualityService
         this._transportProvider = transportProvider;
     }
 
+    /**
+     * setter of executor parameter, used for the background calls, such as the page prefetches of the suspicious identity streams, and for the calls of
+     * the batches
+     *
+     * @param executor
+     *            the executor
+     */
+    public void setExecutor( final Executor executor )
+    {
+        this._executor = executor;
+    }
+
+    /**
+     * setter of batchParallelism parameter
+     *
+     * @param nBatchParallelism
+     *            the maximum number of calls in flight in a batch
+     */
+    public void setBatchParallelism( final int nBatchParallelism )
+    {
+        this._nBatchParallelism = nBatchParallelism;
+    }
+
+    /**
+     * setter of batchCallTimeout parameter
+     *
+     * @param lBatchCallTimeout
+     *            the deadline of each call of a batch, in milliseconds, or 0 for no deadline
+     */
+    public void setBatchCallTimeout( final long lBatchCallTimeout )
+    {
+        this._lBatchCallTimeout = lBatchCallTimeout;
+    }
+
     /**
      * Report a suspicious identity
      * 
@@ -143,6 +203,36 @@ public class IdentityQualityService
         return this._transportProvider.getSuspiciousIdentities( request, strClientCode, author );
     }
 
+    /**
+     * Stream all the suspicious identities matching a request, page after page. The pages are requested lazily, and the next ones are prefetched in background
+     * while the current one is consumed, so that at most 1 + nPrefetchDepth pages are held in memory.<br>
+     * The stream should be closed, to cancel the prefetches in flight, if it is not fully consumed. A failure to fetch a page is thrown as an
+     * {@link UncheckedIdentityStoreException} when the page is reached.
+     *
+     * @param request
+     *            the SuspiciousIdentitySearchRequest, whose pagination is ignored
+     * @param strClientCode
+     *            the client code
+     * @param author
+     *            the author of the request
+     * @param nPageSize
+     *            the number of suspicious identities per page
+     * @param nPrefetchDepth
+     *            the number of pages fetched ahead, 0 to fetch each page when it is reached
+     * @return the sequential stream of SuspiciousIdentityDto
+     * @throws IdentityStoreException
+     *             if the headers are not valid
+     */
+    public Stream<SuspiciousIdentityDto> streamSuspiciousIdentities( final SuspiciousIdentitySearchRequest request, final String strClientCode,
+            final RequestAuthor author, final int nPageSize, final int nPrefetchDepth ) throws IdentityStoreException
+    {
+        this._transportProvider.checkCommonHeaders( strClientCode, author );
+
+        final SuspiciousIdentitySpliterator spliterator = new SuspiciousIdentitySpliterator( this._transportProvider, request, strClientCode, author,
+                nPageSize, nPrefetchDepth, _executor != null ? _executor : IdentityQualityAsyncService.getDefaultExecutor( ) );
+        return StreamSupport.stream( spliterator, false ).onClose( spliterator::close );
+    }
+
     /**
      * Get list of identities that are duplicates of the provided customerId's identity, according to the provided rule ID.
      * 
@@ -162,6 +252,144 @@ public class IdentityQualityService
         return this._transportProvider.getDuplicates( customerId, ruleCode, strClientCode, author );
     }
 
+    /**
+     * Get the duplicates of several customers, according to the provided rule code.<br>
+     * The calls are executed in parallel, within the batch parallelism, and each of them within the batch call timeout. A failed call doesn't stop the batch :
+     * it is reported in the failures of the result. The identity store having no multi-customer endpoint, there is one call per customer.
+     * 
+     * @param customerIds
+     *            the customer IDs of the identities
+     * @param ruleCode
+     *            the rule code
+     * @param strClientCode
+     *            the client code
+     * @param author
+     *            the author of the request
+     * @return the DuplicateSearchResponse of each customer whose call succeeded, and the failures of the others
+     * @throws IdentityStoreException
+     *             if the headers are not valid, or if the batch is interrupted
+     */
+    public BatchResult<String, DuplicateSearchResponse> getDuplicates( final Collection<String> customerIds, final String ruleCode, final String strClientCode,
+            final RequestAuthor author ) throws IdentityStoreException
+    {
+        final BatchResult<String, DuplicateSearchResponse> result = new BatchResult<>( );
+        this.getDuplicates( customerIds, ruleCode, strClientCode, author, result );
+        return result;
+    }
+
+    /**
+     * Get the duplicates of several customers, according to the provided rule code, streaming each outcome to a handler as soon as it is known, so that large
+     * batches are not held in memory.<br>
+     * The calls are executed in parallel, within the batch parallelism, and each of them within the batch call timeout. A failed call doesn't stop the batch :
+     * it is reported to {@link IBatchResultHandler#onFailure}.
+     * 
+     * @param customerIds
+     *            the customer IDs of the identities
+     * @param ruleCode
+     *            the rule code
+     * @param strClientCode
+     *            the client code
+     * @param author
+     *            the author of the request
+     * @param handler
+     *            receives the DuplicateSearchResponse or the failure of each customer, possibly from several threads at once
+     * @throws IdentityStoreException
+     *             if the headers are not valid, or if the batch is interrupted
+     */
+    public void getDuplicates( final Collection<String> customerIds, final String ruleCode, final String strClientCode, final RequestAuthor author,
+            final IBatchResultHandler<String, DuplicateSearchResponse> handler ) throws IdentityStoreException
+    {
+        this._transportProvider.checkCommonHeaders( strClientCode, author );
+
+        new BatchExecutor( _nBatchParallelism, _lBatchCallTimeout, _executor ).execute( customerIds,
+                customerId -> ( ) -> this._transportProvider.getDuplicates( customerId, ruleCode, strClientCode, author ), handler );
+    }
+
+    /**
+     * Get the duplicates of a customer according to all the duplicate rules. The rules are checked in parallel, within the batch parallelism, so that the
+     * latency is about the one of a single call; the rule list is fetched through the transport provider, which should cache it (see {@link DuplicateRuleCacheTransportProvider}).
+     * 
+     * @param customerId
+     *            the customer ID of the identity
+     * @param strClientCode
+     *            the client code
+     * @param author
+     *            the author of the request
+     * @return the duplicates found by any rule, with the rules which found them, and the failures of the rules which could not be checked
+     * @throws IdentityStoreException
+     *             if the rules can't be fetched, or if the search is interrupted
+     */
+    public CrossRuleDuplicateResult getDuplicatesForAllRules( final String customerId, final String strClientCode, final RequestAuthor author )
+            throws IdentityStoreException
+    {
+        return this.searchAllRules( customerId, strClientCode, author, false );
+    }
+
+    /**
+     * Checks whether a customer has at least one duplicate according to any duplicate rule. The rules are checked in parallel, and the search stops as soon
+     * as one duplicate is found.
+     * 
+     * @param customerId
+     *            the customer ID of the identity
+     * @param strClientCode
+     *            the client code
+     * @param author
+     *            the author of the request
+     * @return true if a duplicate is found
+     * @throws IdentityStoreException
+     *             if no duplicate is found but some rules could not be checked
+     */
+    public boolean hasDuplicates( final String customerId, final String strClientCode, final RequestAuthor author ) throws IdentityStoreException
+    {
+        final CrossRuleDuplicateResult result = this.searchAllRules( customerId, strClientCode, author, true );
+        if ( !result.hasDuplicates( ) && !result.getFailures( ).isEmpty( ) )
+        {
+            final IdentityStoreException cause = result.getFailures( ).values( ).iterator( ).next( );
+            throw new IdentityStoreException( "LibraryIdentityQuality - Unable to check the rules " + result.getFailures( ).keySet( ) + " : " + cause.getMessage( ),
+                    cause );
+        }
+        return result.hasDuplicates( );
+    }
+
+    /**
+     * Checks all the duplicate rules in parallel
+     * 
+     * @param customerId
+     *            the customer ID of the identity
+     * @param strClientCode
+     *            the client code
+     * @param author
+     *            the author of the request
+     * @param bStopOnFirstMatch
+     *            true to stop as soon as one duplicate is found
+     * @return the merged result
+     * @throws IdentityStoreException
+     */
+    private CrossRuleDuplicateResult searchAllRules( final String customerId, final String strClientCode, final RequestAuthor author,
+            final boolean bStopOnFirstMatch ) throws IdentityStoreException
+    {
+        final DuplicateRuleSummarySearchResponse rules = this._transportProvider.getAllDuplicateRules( strClientCode, author, null );
+        if ( rules == null || rules.getDuplicateRuleSummaries( ) == null )
+        {
+            throw new IdentityStoreException( "LibraryIdentityQuality - Unable to get the duplicate rules"
+                    + ( rules != null && rules.getStatus( ) != null ? " : " + rules.getStatus( ).getMessage( ) : "" ) );
+        }
+
+        final List<String> ruleCodes = new ArrayList<>( );
+        for ( final DuplicateRuleSummaryDto rule : rules.getDuplicateRuleSummaries( ) )
+        {
+            ruleCodes.add( rule.getCode( ) );
+        }
+
+        final CrossRuleDuplicateResult result = new CrossRuleDuplicateResult( bStopOnFirstMatch );
+        if ( !ruleCodes.isEmpty( ) )
+        {
+            new BatchExecutor( Math.min( ruleCodes.size( ), _nBatchParallelism ), _lBatchCallTimeout, _executor ).execute( ruleCodes,
+                    ruleCode -> ( ) -> this._transportProvider.getDuplicates( customerId, ruleCode, strClientCode, author ), result );
+        }
+        return result;
+    }
+
     /**
      * Get list of identities that are potential duplicates of the provided virtual identity (list of attributes), according to the provided rule codes.
      *
@@ -213,6 +441,170 @@ public class IdentityQualityService
         return this._transportProvider.cancelIdentitiesExclusion( request, strClientCode, author );
     }
 
+    /**
+     * Exclude several pairs of identities from duplicate suspicions.<br>
+     * See {@link #excludeAll} for the validation, de-duplication and ordering of the requests.
+     * 
+     * @param requests
+     *            the SuspiciousIdentityExcludeRequest
+     * @param strClientCode
+     *            the client code
+     * @param author
+     *            the author of the request
+     * @return the SuspiciousIdentityExcludeResponse of each request sent successfully, and the failures of the others
+     * @throws IdentityStoreException
+     *             if the headers or one of the requests are not valid, in which case no request is sent
+     */
+    public BatchResult<SuspiciousIdentityExcludeRequest, SuspiciousIdentityExcludeResponse> excludeIdentities(
+            final Collection<SuspiciousIdentityExcludeRequest> requests, final String strClientCode, final RequestAuthor author ) throws IdentityStoreException
+    {
+        return this.excludeAll( requests, strClientCode, author,
+                request -> ( ) -> this._transportProvider.excludeIdentities( request, strClientCode, author ) );
+    }
+
+    /**
+     * Cancel the exclusion of several pairs of identities from duplicate suspicions.<br>
+     * See {@link #excludeAll} for the validation, de-duplication and ordering of the requests.
+     * 
+     * @param requests
+     *            the SuspiciousIdentityExcludeRequest
+     * @param strClientCode
+     *            the client code
+     * @param author
+     *            the author of the request
+     * @return the SuspiciousIdentityExcludeResponse of each request sent successfully, and the failures of the others
+     * @throws IdentityStoreException
+     *             if the headers or one of the requests are not valid, in which case no request is sent
+     */
+    public BatchResult<SuspiciousIdentityExcludeRequest, SuspiciousIdentityExcludeResponse> cancelIdentitiesExclusion(
+            final Collection<SuspiciousIdentityExcludeRequest> requests, final String strClientCode, final RequestAuthor author ) throws IdentityStoreException
+    {
+        return this.excludeAll( requests, strClientCode, author,
+                request -> ( ) -> this._transportProvider.cancelIdentitiesExclusion( request, strClientCode, author ) );
+    }
+
+    /**
+     * Sends exclusion requests in bulk :
+     * <ul>
+     * <li>all the requests are validated before any is sent</li>
+     * <li>the requests for the same pair of customers, in any order, are sent once, and all of them get the outcome of the request sent</li>
+     * <li>the requests sharing a customer, directly or through other requests, are sent one after the other, so that they never race each other; the other
+     * ones are sent in parallel, within the batch parallelism</li>
+     * </ul>
+     * 
+     * @param requests
+     *            the requests
+     * @param strClientCode
+     *            the client code
+     * @param author
+     *            the author of the request
+     * @param calls
+     *            gives the call of a request
+     * @return the aggregated result
+     * @throws IdentityStoreException
+     *             if the headers or one of the requests are not valid
+     */
+    private BatchResult<SuspiciousIdentityExcludeRequest, SuspiciousIdentityExcludeResponse> excludeAll(
+            final Collection<SuspiciousIdentityExcludeRequest> requests, final String strClientCode, final RequestAuthor author,
+            final Function<SuspiciousIdentityExcludeRequest, ITransportCall<SuspiciousIdentityExcludeResponse>> calls ) throws IdentityStoreException
+    {
+        this._transportProvider.checkCommonHeaders( strClientCode, author );
+        for ( final SuspiciousIdentityExcludeRequest request : requests )
+        {
+            SuspiciousIdentityRequestValidator.instance( ).checkSuspiciousIdentityExclude( request );
+        }
+
+        // de-duplicates the pairs, then groups the requests sharing a customer, keyed by the root customer of each group
+        // the requests of each pair, the first one being sent
+        final Map<String, List<SuspiciousIdentityExcludeRequest>> mapPairs = new LinkedHashMap<>( );
+        final Map<String, String> mapParents = new HashMap<>( );
+        for ( final SuspiciousIdentityExcludeRequest request : requests )
+        {
+            final String strCuid1 = request.getIdentityCuid1( );
+            final String strCuid2 = request.getIdentityCuid2( );
+            final String strPair = strCuid1.compareTo( strCuid2 ) <= 0 ? strCuid1 + "\n" + strCuid2 : strCuid2 + "\n" + strCuid1;
+            final List<SuspiciousIdentityExcludeRequest> pairRequests = mapPairs.computeIfAbsent( strPair, k -> new ArrayList<>( ) );
+            if ( pairRequests.isEmpty( ) )
+            {
+                mapParents.put( findRoot( mapParents, strCuid1 ), findRoot( mapParents, strCuid2 ) );
+            }
+            pairRequests.add( request );
+        }
+
+        final Map<String, List<List<SuspiciousIdentityExcludeRequest>>> mapGroups = new LinkedHashMap<>( );
+        for ( final List<SuspiciousIdentityExcludeRequest> pairRequests : mapPairs.values( ) )
+        {
+            mapGroups.computeIfAbsent( findRoot( mapParents, pairRequests.get( 0 ).getIdentityCuid1( ) ), k -> new ArrayList<>( ) ).add( pairRequests );
+        }
+
+        final BatchResult<SuspiciousIdentityExcludeRequest, SuspiciousIdentityExcludeResponse> result = new BatchResult<>( );
+        new BatchExecutor( _nBatchParallelism, 0, _executor ).execute( mapGroups.values( ), group -> ( ) -> {
+            for ( final List<SuspiciousIdentityExcludeRequest> pairRequests : group )
+            {
+                try
+                {
+                    final SuspiciousIdentityExcludeResponse response = calls.apply( pairRequests.get( 0 ) ).call( );
+                    for ( final SuspiciousIdentityExcludeRequest request : pairRequests )
+                    {
+                        result.onResult( request, response );
+                    }
+                }
+                catch( IdentityStoreException e )
+                {
+                    for ( final SuspiciousIdentityExcludeRequest request : pairRequests )
+                    {
+                        result.onFailure( request, e );
+                    }
+                }
+            }
+            return null;
+        }, new IBatchResultHandler<List<List<SuspiciousIdentityExcludeRequest>>, Void>( )
+        {
+            @Override
+            public void onResult( final List<List<SuspiciousIdentityExcludeRequest>> group, final Void nothing )
+            {
+                // the outcome of each request is already reported
+            }
+
+            @Override
+            public void onFailure( final List<List<SuspiciousIdentityExcludeRequest>> group, final IdentityStoreException exception )
+            {
+                // unexpected failure of a group : its requests not sent yet are reported failed
+                for ( final List<SuspiciousIdentityExcludeRequest> pairRequests : group )
+                {
+                    for ( final SuspiciousIdentityExcludeRequest request : pairRequests )
+                    {
+                        if ( !result.getResults( ).containsKey( request ) && !result.getFailures( ).containsKey( request ) )
+                        {
+                            result.onFailure( request, exception );
+                        }
+                    }
+                }
+            }
+        } );
+        return result;
+    }
+
+    /**
+     * Finds the root customer of a group of customers linked by exclusion requests
+     * 
+     * @param mapParents
+     *            the parent of each linked customer
+     * @param strCustomerId
+     *            the customer ID
+     * @return the root customer ID of its group
+     */
+    private static String findRoot( final Map<String, String> mapParents, final String strCustomerId )
+    {
+        String strRoot = strCustomerId;
+        String strParent;
+        while ( ( strParent = mapParents.get( strRoot ) ) != null && !strParent.equals( strRoot ) )
+        {
+            strRoot = strParent;
+        }
+        return strRoot;
+    }
+
     /**
      * Exclude identities from duplicate suspicions.
      *
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry keeping the metrics of the transport calls in memory, per operation and client code, and giving snapshots of them
+ */
+public class InMemoryTransportMetricsRegistry implements ITransportMetricsRegistry
+{
+    private final Map<MetricsKey, Metrics> _mapMetrics = new ConcurrentHashMap<>( );
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void callStarted( final TransportOperation operation, final String strClientCode )
+    {
+        metrics( operation, strClientCode )._nInFlight.incrementAndGet( );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void callCompleted( final TransportOperation operation, final String strClientCode, final TransportCallMetrics call )
+    {
+        final Metrics metrics = metrics( operation, strClientCode );
+        metrics._nInFlight.decrementAndGet( );
+        metrics._latencies.record( TimeUnit.NANOSECONDS.toMicros( call.getDuration( ) ) );
+        if ( call.isError( ) )
+        {
+            metrics._errors.increment( );
+        }
+        metrics._serializationTime.add( call.getSerializationTime( ) );
+        metrics._networkTime.add( call.getNetworkTime( ) );
+        metrics._deserializationTime.add( call.getDeserializationTime( ) );
+        metrics._requestSize.add( call.getRequestSize( ) );
+        metrics._responseSize.add( call.getResponseSize( ) );
+    }
+
+    /**
+     * @param operation
+     *            the operation
+     * @param strClientCode
+     *            the client code
+     * @return the snapshot of the metrics of the operation for the client code
+     */
+    public TransportMetricsSnapshot getSnapshot( final TransportOperation operation, final String strClientCode )
+    {
+        return metrics( operation, strClientCode ).snapshot( operation, strClientCode );
+    }
+
+    /**
+     * @return the snapshots of the metrics of all the operations and client codes called
+     */
+    public List<TransportMetricsSnapshot> getSnapshots( )
+    {
+        final List<TransportMetricsSnapshot> snapshots = new ArrayList<>( );
+        for ( final Map.Entry<MetricsKey, Metrics> entry : _mapMetrics.entrySet( ) )
+        {
+            snapshots.add( entry.getValue( ).snapshot( entry.getKey( )._operation, entry.getKey( )._strClientCode ) );
+        }
+        return snapshots;
+    }
+
+    /**
+     * Forgets all the metrics
+     */
+    public void reset( )
+    {
+        _mapMetrics.clear( );
+    }
+
+    private Metrics metrics( final TransportOperation operation, final String strClientCode )
+    {
+        return _mapMetrics.computeIfAbsent( new MetricsKey( operation, strClientCode ), k -> new Metrics( ) );
+    }
+
+    /**
+     * Key of the metrics
+     */
+    private static final class MetricsKey
+    {
+        private final TransportOperation _operation;
+        private final String _strClientCode;
+
+        MetricsKey( final TransportOperation operation, final String strClientCode )
+        {
+            _operation = operation;
+            _strClientCode = strClientCode;
+        }
+
+        @Override
+        public boolean equals( final Object o )
+        {
+            if ( !( o instanceof MetricsKey ) )
+            {
+                return false;
+            }
+            final MetricsKey other = (MetricsKey) o;
+            return _operation == other._operation && Objects.equals( _strClientCode, other._strClientCode );
+        }
+
+        @Override
+        public int hashCode( )
+        {
+            return Objects.hash( _operation, _strClientCode );
+        }
+    }
+
+    /**
+     * Metrics of an operation for a client code
+     */
+    private static final class Metrics
+    {
+        private final LatencyHistogram _latencies = new LatencyHistogram( );
+        private final AtomicInteger _nInFlight = new AtomicInteger( );
+        private final LongAdder _errors = new LongAdder( );
+        private final LongAdder _serializationTime = new LongAdder( );
+        private final LongAdder _networkTime = new LongAdder( );
+        private final LongAdder _deserializationTime = new LongAdder( );
+        private final LongAdder _requestSize = new LongAdder( );
+        private final LongAdder _responseSize = new LongAdder( );
+
+        TransportMetricsSnapshot snapshot( final TransportOperation operation, final String strClientCode )
+        {
+            final long lCount = _latencies.getCount( );
+            return new TransportMetricsSnapshot( operation, strClientCode, lCount, _errors.sum( ), _nInFlight.get( ), _latencies,
+                    meanMicros( _serializationTime, lCount ), meanMicros( _networkTime, lCount ), meanMicros( _deserializationTime, lCount ),
+                    mean( _requestSize, lCount ), mean( _responseSize, lCount ) );
+        }
+
+        private static double mean( final LongAdder total, final long lCount )
+        {
+            return lCount == 0 ? 0 : (double) total.sum( ) / lCount;
+        }
+
+        private static double meanMicros( final LongAdder totalNanos, final long lCount )
+        {
+            return mean( totalNanos, lCount ) / TimeUnit.MICROSECONDS.toNanos( 1 );
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies with log-linear buckets, in the manner of HdrHistogram : each power of 2 is split in 32 buckets, so that any recorded value is known
+ * within about 3 %, in a fixed memory, whatever the number of values. Values are recorded in microseconds. Recording is lock free.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = ( Long.SIZE - SUB_BUCKET_BITS + 1 ) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray _counts = new AtomicLongArray( BUCKET_COUNT );
+    private final LongAdder _count = new LongAdder( );
+    private final LongAdder _sum = new LongAdder( );
+
+    /**
+     * Records a value
+     * 
+     * @param lValue
+     *            the value, in microseconds
+     */
+    public void record( final long lValue )
+    {
+        final long lPositive = Math.max( 0, lValue );
+        _counts.incrementAndGet( indexOf( lPositive ) );
+        _count.increment( );
+        _sum.add( lPositive );
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long getCount( )
+    {
+        return _count.sum( );
+    }
+
+    /**
+     * @return the mean of the recorded values, in microseconds
+     */
+    public double getMean( )
+    {
+        final long lCount = getCount( );
+        return lCount == 0 ? 0 : (double) _sum.sum( ) / lCount;
+    }
+
+    /**
+     * @param dPercentile
+     *            the percentile, between 0 and 1
+     * @return the value at the percentile, in microseconds (the upper bound of its bucket), 0 if no value is recorded
+     */
+    public long getPercentile( final double dPercentile )
+    {
+        long lTotal = 0;
+        final long [ ] counts = new long [ BUCKET_COUNT];
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            counts [i] = _counts.get( i );
+            lTotal += counts [i];
+        }
+        if ( lTotal == 0 )
+        {
+            return 0;
+        }
+
+        final long lRank = Math.max( 1, (long) Math.ceil( dPercentile * lTotal ) );
+        long lCumulated = 0;
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            lCumulated += counts [i];
+            if ( lCumulated >= lRank )
+            {
+                return highestValueOf( i );
+            }
+        }
+        return highestValueOf( BUCKET_COUNT - 1 );
+    }
+
+    /**
+     * @return the bucket of a value
+     */
+    private static int indexOf( final long lValue )
+    {
+        if ( lValue < SUB_BUCKET_COUNT )
+        {
+            return (int) lValue;
+        }
+        final int nShift = Long.SIZE - 1 - Long.numberOfLeadingZeros( lValue ) - SUB_BUCKET_BITS;
+        final int nSubBucket = (int) ( lValue >>> nShift ) - SUB_BUCKET_COUNT;
+        return ( nShift + 1 ) * SUB_BUCKET_COUNT + nSubBucket;
+    }
+
+    /**
+     * @return the highest value of a bucket
+     */
+    private static long highestValueOf( final int nIndex )
+    {
+        final int nGroup = nIndex / SUB_BUCKET_COUNT;
+        if ( nGroup == 0 )
+        {
+            return nIndex;
+        }
+        final int nShift = nGroup - 1;
+        final long lMantissa = SUB_BUCKET_COUNT + nIndex % SUB_BUCKET_COUNT;
+        return ( ( lMantissa + 1 ) << nShift ) - 1;
+    }
+}
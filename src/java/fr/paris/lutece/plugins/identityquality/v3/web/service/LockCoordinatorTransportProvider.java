@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.SuspiciousIdentityRequestValidator;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.RequestAuthor;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.lock.SuspiciousIdentityLockRequest;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.lock.SuspiciousIdentityLockResponse;
+import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+
+/**
+ * Transport provider coordinating, inside the JVM, the lock requests of the decorated provider.<br>
+ * For a given customer, client code and author, only one lock or unlock request is sent at a time : the concurrent local callers either wait for its
+ * outcome, or fail fast. The callers of the same request get its outcome; the callers of the opposite request send theirs once it is over. The leases
+ * obtained by this JVM are tracked, so that a repeated lock of a lock already held by this JVM is answered locally, with a copy of the response of the call
+ * which obtained it, as long as the lease duration is not over. A successful unlock, or the end of the lease duration, drops the lease.
+ */
+public class LockCoordinatorTransportProvider extends AbstractTransportProviderDecorator
+{
+    /** default duration during which a lease is trusted locally, in seconds */
+    private static final long DEFAULT_LEASE_DURATION = 60;
+
+    private static final String KEY_SEPARATOR = "\n";
+
+    private final ConcurrentMap<String, Lease> _mapLeases = new ConcurrentHashMap<>( );
+    private final SingleFlight<String, Outcome> _calls = new SingleFlight<>( );
+    private volatile long _lLeaseDuration = TimeUnit.SECONDS.toMillis( DEFAULT_LEASE_DURATION );
+    private volatile boolean _bFailFast;
+    private volatile long _lNextPurgeTime;
+
+    private final LongAdder _localAnswers = new LongAdder( );
+    private final LongAdder _remoteCalls = new LongAdder( );
+
+    /**
+     * Simple Constructor
+     */
+    public LockCoordinatorTransportProvider( )
+    {
+        super( );
+    }
+
+    /**
+     * Constructor with the decorated IIdentityQualityTransportProvider in parameters
+     *
+     * @param transportProvider
+     *            the decorated IIdentityQualityTransportProvider
+     */
+    public LockCoordinatorTransportProvider( final IIdentityQualityTransportProvider transportProvider )
+    {
+        super( transportProvider );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public SuspiciousIdentityLockResponse lock( final SuspiciousIdentityLockRequest request, final String strClientCode, final RequestAuthor author )
+            throws IdentityStoreException
+    {
+        this.checkCommonHeaders( strClientCode, author );
+        SuspiciousIdentityRequestValidator.instance( ).checkLockRequest( request );
+
+        final String strLeaseKey = strClientCode + KEY_SEPARATOR + author.getType( ) + KEY_SEPARATOR + author.getName( ) + KEY_SEPARATOR
+                + request.getCustomerId( );
+        purgeExpiredLeases( );
+        while ( true )
+        {
+            final Lease lease = _mapLeases.get( strLeaseKey );
+            if ( request.isLocked( ) && lease != null && !lease.isExpired( ) )
+            {
+                _localAnswers.increment( );
+                return ResponseCopier.copy( lease._response );
+            }
+
+            if ( _bFailFast && _calls.isInFlight( strLeaseKey ) )
+            {
+                throw new IdentityStoreException( "LibraryIdentityQuality - A lock request for customer " + request.getCustomerId( )
+                        + " is already in progress in this JVM" );
+            }
+            final Outcome outcome = _calls.execute( strLeaseKey, ( ) -> callRemote( strLeaseKey, request, strClientCode, author ), Outcome::copy );
+            if ( outcome._bLocked == request.isLocked( ) )
+            {
+                return outcome.get( );
+            }
+            // the opposite request was in flight : this one is sent now that it is over
+        }
+    }
+
+    /**
+     * Sends the lock request, and records the lease it gives
+     * 
+     * @return the outcome of the request
+     */
+    private Outcome callRemote( final String strLeaseKey, final SuspiciousIdentityLockRequest request, final String strClientCode,
+            final RequestAuthor author )
+    {
+        _remoteCalls.increment( );
+        boolean bRecorded = false;
+        try
+        {
+            final SuspiciousIdentityLockResponse response = _transportProvider.lock( request, strClientCode, author );
+            if ( isSuccess( response ) && request.isLocked( ) )
+            {
+                _mapLeases.put( strLeaseKey,
+                        new Lease( request.getCustomerId( ), ResponseCopier.copy( response ), System.currentTimeMillis( ) + _lLeaseDuration ) );
+                bRecorded = true;
+            }
+            return new Outcome( request.isLocked( ), response, null );
+        }
+        catch( IdentityStoreException | RuntimeException e )
+        {
+            return new Outcome( request.isLocked( ), null, e );
+        }
+        finally
+        {
+            if ( !bRecorded )
+            {
+                // the lock is released, or its state is unknown : the next request goes to the identity store
+                _mapLeases.remove( strLeaseKey );
+            }
+        }
+    }
+
+    /**
+     * Drops the expired leases, at most once per lease duration
+     */
+    private void purgeExpiredLeases( )
+    {
+        final long lNow = System.currentTimeMillis( );
+        if ( lNow < _lNextPurgeTime )
+        {
+            return;
+        }
+        _lNextPurgeTime = lNow + Math.max( _lLeaseDuration, 1000 );
+        _mapLeases.values( ).removeIf( Lease::isExpired );
+    }
+
+    /**
+     * Checks whether a lock response grants the request
+     * 
+     * @param response
+     *            the response
+     * @return true if the status is a success (HTTP 2xx)
+     */
+    protected boolean isSuccess( final SuspiciousIdentityLockResponse response )
+    {
+        return response != null && response.getStatus( ) != null && response.getStatus( ).getHttpCode( ) >= 200 && response.getStatus( ).getHttpCode( ) < 300;
+    }
+
+    /**
+     * @return the customer IDs whose lock is held by this JVM, according to the unexpired leases
+     */
+    public Set<String> getHeldLocks( )
+    {
+        purgeExpiredLeases( );
+        final Set<String> customerIds = new LinkedHashSet<>( );
+        for ( final Lease lease : _mapLeases.values( ) )
+        {
+            if ( !lease.isExpired( ) )
+            {
+                customerIds.add( lease._strCustomerId );
+            }
+        }
+        return customerIds;
+    }
+
+    /**
+     * Forgets the leases of a customer, so that its next lock requests go to the identity store
+     * 
+     * @param strCustomerId
+     *            the customer ID
+     */
+    public void forget( final String strCustomerId )
+    {
+        for ( final Map.Entry<String, Lease> entry : _mapLeases.entrySet( ) )
+        {
+            if ( entry.getValue( )._strCustomerId.equals( strCustomerId ) )
+            {
+                _mapLeases.remove( entry.getKey( ), entry.getValue( ) );
+            }
+        }
+    }
+
+    /**
+     * Sets the duration during which a lease is trusted locally. It should not exceed the expiration of the locks in the identity store.
+     * 
+     * @param lLeaseDuration
+     *            the duration, in seconds, or 0 to never answer locally
+     */
+    public void setLeaseDuration( final long lLeaseDuration )
+    {
+        _lLeaseDuration = TimeUnit.SECONDS.toMillis( lLeaseDuration );
+    }
+
+    /**
+     * Sets the behaviour of the callers while a request for the same lock is in progress in this JVM
+     * 
+     * @param bFailFast
+     *            true to fail immediately, false (default) to wait for its outcome
+     */
+    public void setFailFast( final boolean bFailFast )
+    {
+        _bFailFast = bFailFast;
+    }
+
+    /**
+     * @return the number of requests answered locally
+     */
+    public long getLocalAnswerCount( )
+    {
+        return _localAnswers.sum( );
+    }
+
+    /**
+     * @return the number of requests sent to the identity store
+     */
+    public long getRemoteCallCount( )
+    {
+        return _remoteCalls.sum( );
+    }
+
+    /**
+     * Outcome of a lock or unlock request, shared by the callers of the same request
+     */
+    private static final class Outcome
+    {
+        private final boolean _bLocked;
+        private final SuspiciousIdentityLockResponse _response;
+        private final Exception _failure;
+
+        Outcome( final boolean bLocked, final SuspiciousIdentityLockResponse response, final Exception failure )
+        {
+            _bLocked = bLocked;
+            _response = response;
+            _failure = failure;
+        }
+
+        /**
+         * @return the same outcome, with a copy of the response, for a caller which joined the request
+         */
+        Outcome copy( )
+        {
+            return new Outcome( _bLocked, ResponseCopier.copy( _response ), _failure );
+        }
+
+        /**
+         * @return the response
+         * @throws IdentityStoreException
+         *             the failure of the request
+         */
+        SuspiciousIdentityLockResponse get( ) throws IdentityStoreException
+        {
+            if ( _failure instanceof IdentityStoreException )
+            {
+                throw (IdentityStoreException) _failure;
+            }
+            if ( _failure instanceof RuntimeException )
+            {
+                throw (RuntimeException) _failure;
+            }
+            return _response;
+        }
+    }
+
+    /**
+     * Lock granted to this JVM
+     */
+    private static final class Lease
+    {
+        private final String _strCustomerId;
+        private final SuspiciousIdentityLockResponse _response;
+        private final long _lExpirationTime;
+
+        Lease( final String strCustomerId, final SuspiciousIdentityLockResponse response, final long lExpirationTime )
+        {
+            _strCustomerId = strCustomerId;
+            _response = response;
+            _lExpirationTime = lExpirationTime;
+        }
+
+        boolean isExpired( )
+        {
+            return System.currentTimeMillis( ) >= _lExpirationTime;
+        }
+    }
+}
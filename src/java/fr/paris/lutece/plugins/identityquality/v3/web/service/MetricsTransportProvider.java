@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.ResponseDto;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.ResponseStatus;
+import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+
+/**
+ * Transport provider measuring the calls of the decorated provider, per operation and client code : latency, errors, calls in flight, payload sizes, and the
+ * split of the time between serialization, network and deserialization (as reported by the transports of the library, see {@link TransportCallMetrics}).
+ * A call is counted as an error when it throws, or when its response has an error status (see {@link #isErrorResponse(Object)}). The measures are given to
+ * a pluggable registry, in memory by default.
+ */
+public class MetricsTransportProvider extends AbstractTransportProviderDecorator
+{
+    private static final int HTTP_SUCCESS_MIN = 200;
+    private static final int HTTP_SUCCESS_MAX = 300;
+    private static final int HTTP_NOT_FOUND = 404;
+
+    private ITransportMetricsRegistry _registry = new InMemoryTransportMetricsRegistry( );
+
+    /**
+     * Simple Constructor
+     */
+    public MetricsTransportProvider( )
+    {
+        super( );
+    }
+
+    /**
+     * Constructor with the decorated IIdentityQualityTransportProvider in parameters
+     *
+     * @param transportProvider
+     *            the decorated IIdentityQualityTransportProvider
+     */
+    public MetricsTransportProvider( final IIdentityQualityTransportProvider transportProvider )
+    {
+        super( transportProvider );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    protected <R> R invoke( final TransportOperation operation, final String strClientCode, final ITransportCall<R> call ) throws IdentityStoreException
+    {
+        final ITransportMetricsRegistry registry = _registry;
+        registry.callStarted( operation, strClientCode );
+
+        final TransportCallMetrics metrics = TransportCallMetrics.open( );
+        final long lStart = System.nanoTime( );
+        boolean bError = true;
+        try
+        {
+            final R response = call.call( );
+            bError = isErrorResponse( response );
+            return response;
+        }
+        finally
+        {
+            metrics.close( System.nanoTime( ) - lStart, bError );
+            registry.callCompleted( operation, strClientCode, metrics );
+        }
+    }
+
+    /**
+     * Checks whether a response reports an error : the error statuses under 500 are answered as a response, not as an exception. A "not found" status is the
+     * normal answer of a search without result, and is not an error.
+     * 
+     * @param response
+     *            the response
+     * @return true if the status of the response is neither a success (2xx) nor "not found"
+     */
+    protected boolean isErrorResponse( final Object response )
+    {
+        if ( !( response instanceof ResponseDto ) )
+        {
+            return false;
+        }
+        final ResponseStatus status = ( (ResponseDto) response ).getStatus( );
+        if ( status == null )
+        {
+            return false;
+        }
+        final int nHttpCode = status.getHttpCode( );
+        return ( nHttpCode < HTTP_SUCCESS_MIN || nHttpCode >= HTTP_SUCCESS_MAX ) && nHttpCode != HTTP_NOT_FOUND;
+    }
+
+    /**
+     * setter of registry parameter
+     *
+     * @param registry
+     *            the registry receiving the measures
+     */
+    public void setRegistry( final ITransportMetricsRegistry registry )
+    {
+        _registry = registry;
+    }
+
+    /**
+     * @return the registry receiving the measures
+     */
+    public ITransportMetricsRegistry getRegistry( )
+    {
+        return _registry;
+    }
+}
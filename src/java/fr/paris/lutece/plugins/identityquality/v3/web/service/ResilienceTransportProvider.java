@@ -0,0 +1,452 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+
+/**
+ * Transport provider isolating the operations of the decorated provider from each other, and from a failing identity store :
+ * <ul>
+ * <li>each operation has its own bulkhead, limiting its concurrent calls, so that slow calls of an operation can't use all the threads of the
+ * application</li>
+ * <li>each operation has its own circuit breaker : when the rate of failed or slow calls among the last calls exceeds a threshold, the circuit opens, and the
+ * calls fail fast for a while. A few trial calls are then let through, and the circuit closes again if they succeed.</li>
+ * </ul>
+ * Only the transient failures (I/O errors, HTTP 5xx) count as failures; a rejected request is the caller's concern, not the identity store's.
+ */
+public class ResilienceTransportProvider extends AbstractTransportProviderDecorator
+{
+    /**
+     * States of a circuit
+     */
+    public enum CircuitState
+    {
+        /** the calls go through */
+        CLOSED,
+        /** the calls fail fast */
+        OPEN,
+        /** a few trial calls go through */
+        HALF_OPEN
+    }
+
+    private static final int DEFAULT_BULKHEAD_SIZE = 10;
+    private static final int DEFAULT_WINDOW_SIZE = 20;
+    private static final int DEFAULT_MINIMUM_CALLS = 10;
+    private static final int DEFAULT_FAILURE_RATE_THRESHOLD = 50;
+    private static final int DEFAULT_SLOW_CALL_RATE_THRESHOLD = 50;
+    private static final long DEFAULT_SLOW_CALL_DURATION = 5000;
+    private static final long DEFAULT_OPEN_DURATION = 30000;
+    private static final int DEFAULT_HALF_OPEN_CALLS = 3;
+
+    private final ConcurrentMap<TransportOperation, Semaphore> _mapBulkheads = new ConcurrentHashMap<>( );
+    private final ConcurrentMap<TransportOperation, CircuitBreaker> _mapCircuitBreakers = new ConcurrentHashMap<>( );
+
+    private int _nBulkheadSize = DEFAULT_BULKHEAD_SIZE;
+    private Map<String, Integer> _mapBulkheadSizes = new HashMap<>( );
+    private long _lBulkheadMaxWait;
+    private int _nWindowSize = DEFAULT_WINDOW_SIZE;
+    private int _nMinimumCalls = DEFAULT_MINIMUM_CALLS;
+    private int _nFailureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+    private int _nSlowCallRateThreshold = DEFAULT_SLOW_CALL_RATE_THRESHOLD;
+    private long _lSlowCallDuration = DEFAULT_SLOW_CALL_DURATION;
+    private long _lOpenDuration = DEFAULT_OPEN_DURATION;
+    private int _nHalfOpenCalls = DEFAULT_HALF_OPEN_CALLS;
+
+    /**
+     * Simple Constructor
+     */
+    public ResilienceTransportProvider( )
+    {
+        super( );
+    }
+
+    /**
+     * Constructor with the decorated IIdentityQualityTransportProvider in parameters
+     *
+     * @param transportProvider
+     *            the decorated IIdentityQualityTransportProvider
+     */
+    public ResilienceTransportProvider( final IIdentityQualityTransportProvider transportProvider )
+    {
+        super( transportProvider );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    protected <R> R invoke( final TransportOperation operation, final String strClientCode, final ITransportCall<R> call ) throws IdentityStoreException
+    {
+        final CircuitBreaker circuitBreaker = _mapCircuitBreakers.computeIfAbsent( operation, o -> new CircuitBreaker( ) );
+        final long lGeneration = circuitBreaker.acquirePermission( operation );
+
+        final Semaphore bulkhead = _mapBulkheads.computeIfAbsent( operation,
+                o -> new Semaphore( _mapBulkheadSizes.getOrDefault( o.name( ), _nBulkheadSize ) ) );
+        if ( !acquire( bulkhead ) )
+        {
+            circuitBreaker.releasePermission( lGeneration );
+            throw new IdentityStoreException( "LibraryIdentityQuality - Too many concurrent calls of " + operation );
+        }
+
+        final long lStart = System.nanoTime( );
+        boolean bFailure = false;
+        try
+        {
+            return call.call( );
+        }
+        catch( IdentityStoreException | RuntimeException e )
+        {
+            bFailure = TransportFailures.isTransient( e );
+            throw e;
+        }
+        finally
+        {
+            bulkhead.release( );
+            circuitBreaker.onComplete( lGeneration, TimeUnit.NANOSECONDS.toMillis( System.nanoTime( ) - lStart ), bFailure );
+        }
+    }
+
+    /**
+     * @param operation
+     *            the operation
+     * @return the state of its circuit
+     */
+    public CircuitState getCircuitState( final TransportOperation operation )
+    {
+        final CircuitBreaker circuitBreaker = _mapCircuitBreakers.get( operation );
+        return circuitBreaker == null ? CircuitState.CLOSED : circuitBreaker.getState( );
+    }
+
+    /**
+     * @param operation
+     *            the operation
+     * @return the number of calls the bulkhead of the operation can still let through
+     */
+    public int getAvailableBulkheadPermits( final TransportOperation operation )
+    {
+        final Semaphore bulkhead = _mapBulkheads.get( operation );
+        return bulkhead == null ? _mapBulkheadSizes.getOrDefault( operation.name( ), _nBulkheadSize ) : bulkhead.availablePermits( );
+    }
+
+    /**
+     * Sets the default maximum number of concurrent calls of an operation
+     * 
+     * @param nBulkheadSize
+     *            the number of calls
+     */
+    public void setBulkheadSize( final int nBulkheadSize )
+    {
+        _nBulkheadSize = nBulkheadSize;
+        _mapBulkheads.clear( );
+    }
+
+    /**
+     * Sets the maximum number of concurrent calls of some operations
+     * 
+     * @param mapBulkheadSizes
+     *            the number of calls, by operation name (see {@link TransportOperation})
+     */
+    public void setBulkheadSizes( final Map<String, Integer> mapBulkheadSizes )
+    {
+        _mapBulkheadSizes = new HashMap<>( mapBulkheadSizes );
+        _mapBulkheads.clear( );
+    }
+
+    /**
+     * Sets the time a call waits for room in the bulkhead of its operation before failing
+     * 
+     * @param lBulkheadMaxWait
+     *            the time, in milliseconds, 0 (default) to fail immediately
+     */
+    public void setBulkheadMaxWait( final long lBulkheadMaxWait )
+    {
+        _lBulkheadMaxWait = lBulkheadMaxWait;
+    }
+
+    /**
+     * Sets the number of last calls on which the failure and slow call rates are computed
+     * 
+     * @param nWindowSize
+     *            the number of calls
+     */
+    public void setWindowSize( final int nWindowSize )
+    {
+        _nWindowSize = nWindowSize;
+        _mapCircuitBreakers.clear( );
+    }
+
+    /**
+     * Sets the number of calls needed before the rates are checked
+     * 
+     * @param nMinimumCalls
+     *            the number of calls
+     */
+    public void setMinimumCalls( final int nMinimumCalls )
+    {
+        _nMinimumCalls = nMinimumCalls;
+    }
+
+    /**
+     * Sets the rate of failed calls from which the circuit opens
+     * 
+     * @param nFailureRateThreshold
+     *            the rate, in percent
+     */
+    public void setFailureRateThreshold( final int nFailureRateThreshold )
+    {
+        _nFailureRateThreshold = nFailureRateThreshold;
+    }
+
+    /**
+     * Sets the rate of slow calls from which the circuit opens
+     * 
+     * @param nSlowCallRateThreshold
+     *            the rate, in percent
+     */
+    public void setSlowCallRateThreshold( final int nSlowCallRateThreshold )
+    {
+        _nSlowCallRateThreshold = nSlowCallRateThreshold;
+    }
+
+    /**
+     * Sets the duration from which a call is slow
+     * 
+     * @param lSlowCallDuration
+     *            the duration, in milliseconds
+     */
+    public void setSlowCallDuration( final long lSlowCallDuration )
+    {
+        _lSlowCallDuration = lSlowCallDuration;
+    }
+
+    /**
+     * Sets the duration during which an open circuit makes the calls fail fast
+     * 
+     * @param lOpenDuration
+     *            the duration, in milliseconds
+     */
+    public void setOpenDuration( final long lOpenDuration )
+    {
+        _lOpenDuration = lOpenDuration;
+    }
+
+    /**
+     * Sets the number of trial calls let through when the open duration is over
+     * 
+     * @param nHalfOpenCalls
+     *            the number of calls
+     */
+    public void setHalfOpenCalls( final int nHalfOpenCalls )
+    {
+        _nHalfOpenCalls = nHalfOpenCalls;
+    }
+
+    /**
+     * Takes a permit of a bulkhead
+     * 
+     * @return true if a permit is taken
+     * @throws IdentityStoreException
+     *             if interrupted while waiting
+     */
+    private boolean acquire( final Semaphore bulkhead ) throws IdentityStoreException
+    {
+        if ( _lBulkheadMaxWait <= 0 )
+        {
+            return bulkhead.tryAcquire( );
+        }
+        try
+        {
+            return bulkhead.tryAcquire( _lBulkheadMaxWait, TimeUnit.MILLISECONDS );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            throw new IdentityStoreException( "LibraryIdentityQuality - Interrupted while waiting for the bulkhead", e );
+        }
+    }
+
+    /**
+     * Circuit breaker of an operation, computing its rates on a ring of the last calls
+     */
+    private final class CircuitBreaker
+    {
+        private final boolean [ ] _failures = new boolean [ _nWindowSize];
+        private final boolean [ ] _slowCalls = new boolean [ _nWindowSize];
+        private int _nIndex;
+        private int _nCalls;
+        private int _nFailures;
+        private int _nSlowCalls;
+
+        private CircuitState _state = CircuitState.CLOSED;
+        /** incremented at each change of state, so that the outcomes of the calls permitted in a previous state are ignored */
+        private long _lGeneration;
+        private long _lOpenTime;
+        private int _nTrialPermits;
+        private int _nTrialCalls;
+        private int _nTrialFailures;
+
+        synchronized CircuitState getState( )
+        {
+            return _state;
+        }
+
+        /**
+         * Lets a call through, or fails fast
+         * 
+         * @return the generation of the state in which the call is permitted
+         * @throws IdentityStoreException
+         *             if the circuit is open
+         */
+        synchronized long acquirePermission( final TransportOperation operation ) throws IdentityStoreException
+        {
+            if ( _state == CircuitState.OPEN && System.currentTimeMillis( ) - _lOpenTime >= _lOpenDuration )
+            {
+                _state = CircuitState.HALF_OPEN;
+                _lGeneration++;
+                _nTrialPermits = _nHalfOpenCalls;
+                _nTrialCalls = 0;
+                _nTrialFailures = 0;
+            }
+
+            if ( _state == CircuitState.OPEN || ( _state == CircuitState.HALF_OPEN && _nTrialPermits <= 0 ) )
+            {
+                throw new IdentityStoreException( "LibraryIdentityQuality - Circuit open for " + operation + " : the identity store is failing or too slow" );
+            }
+            if ( _state == CircuitState.HALF_OPEN )
+            {
+                _nTrialPermits--;
+            }
+            return _lGeneration;
+        }
+
+        /**
+         * Gives back the permission of a call which was not made
+         * 
+         * @param lGeneration
+         *            the generation of the state in which the call was permitted
+         */
+        synchronized void releasePermission( final long lGeneration )
+        {
+            if ( lGeneration == _lGeneration && _state == CircuitState.HALF_OPEN )
+            {
+                _nTrialPermits++;
+            }
+        }
+
+        /**
+         * Records the outcome of a call, unless the state changed since the call was permitted
+         * 
+         * @param lGeneration
+         *            the generation of the state in which the call was permitted
+         * @param lDuration
+         *            the duration of the call, in milliseconds
+         * @param bFailure
+         *            true if the call failed
+         */
+        synchronized void onComplete( final long lGeneration, final long lDuration, final boolean bFailure )
+        {
+            if ( lGeneration != _lGeneration )
+            {
+                // call permitted before the last change of state : it says nothing about the current one
+                return;
+            }
+            final boolean bSlow = lDuration >= _lSlowCallDuration;
+
+            if ( _state == CircuitState.HALF_OPEN )
+            {
+                _nTrialCalls++;
+                if ( bFailure || bSlow )
+                {
+                    _nTrialFailures++;
+                }
+                if ( _nTrialCalls >= _nHalfOpenCalls )
+                {
+                    if ( _nTrialFailures * 100 >= Math.min( _nFailureRateThreshold, _nSlowCallRateThreshold ) * _nTrialCalls )
+                    {
+                        open( );
+                    }
+                    else
+                    {
+                        close( );
+                    }
+                }
+                return;
+            }
+            if ( _nCalls == _failures.length )
+            {
+                _nFailures -= _failures [_nIndex] ? 1 : 0;
+                _nSlowCalls -= _slowCalls [_nIndex] ? 1 : 0;
+            }
+            else
+            {
+                _nCalls++;
+            }
+            _failures [_nIndex] = bFailure;
+            _slowCalls [_nIndex] = bSlow;
+            _nFailures += bFailure ? 1 : 0;
+            _nSlowCalls += bSlow ? 1 : 0;
+            _nIndex = ( _nIndex + 1 ) % _failures.length;
+
+            if ( _nCalls >= _nMinimumCalls
+                    && ( _nFailures * 100 >= _nFailureRateThreshold * _nCalls || _nSlowCalls * 100 >= _nSlowCallRateThreshold * _nCalls ) )
+            {
+                open( );
+            }
+        }
+
+        private void open( )
+        {
+            _state = CircuitState.OPEN;
+            _lGeneration++;
+            _lOpenTime = System.currentTimeMillis( );
+        }
+
+        private void close( )
+        {
+            _state = CircuitState.CLOSED;
+            _lGeneration++;
+            _nIndex = 0;
+            _nCalls = 0;
+            _nFailures = 0;
+            _nSlowCalls = 0;
+        }
+    }
+}
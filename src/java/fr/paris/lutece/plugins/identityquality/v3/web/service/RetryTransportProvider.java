@@ -0,0 +1,497 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+
+/**
+ * Transport provider retrying and hedging the safe operations (GETs and search POSTs, see {@link TransportOperation#isSafe()}) of the decorated provider :
+ * <ul>
+ * <li>a call failing with a transient failure (I/O error, HTTP 5xx) is retried after a jittered exponential backoff</li>
+ * <li>if hedging is enabled, a call not answered within the 95th percentile of the latencies observed for its operation is sent a second time, and the first
+ * answer is used. The hedged calls are limited by a budget (5% of the calls by default), and no call is hedged while calls are being retried, so that
+ * hedging never adds load to a failing identity store</li>
+ * </ul>
+ * The other operations are never retried nor hedged.
+ */
+public class RetryTransportProvider extends AbstractTransportProviderDecorator
+{
+    private static final int DEFAULT_MAX_RETRIES = 2;
+    private static final long DEFAULT_INITIAL_BACKOFF = 100;
+    private static final long DEFAULT_MAX_BACKOFF = 2000;
+
+    /** number of latencies kept per operation to compute the percentile */
+    private static final int LATENCY_WINDOW_SIZE = 256;
+
+    /** number of latencies needed before hedging */
+    private static final int LATENCY_MINIMUM_SAMPLES = 20;
+    private static final double HEDGING_PERCENTILE = 0.95;
+    private static final String TIMER_THREAD_NAME_PREFIX = "identityquality-hedging-timer-";
+
+    /** default ratio of hedged calls to calls */
+    private static final double DEFAULT_HEDGING_BUDGET = 0.05;
+
+    /** maximum number of hedged calls saved in the budget */
+    private static final double HEDGING_BUDGET_BURST = 10;
+
+    /** timer shared by the instances, sending the hedged calls */
+    private static ScheduledExecutorService _timer;
+
+    private final Map<TransportOperation, LatencyWindow> _mapLatencies = new ConcurrentHashMap<>( );
+    private int _nMaxRetries = DEFAULT_MAX_RETRIES;
+    private long _lInitialBackoff = DEFAULT_INITIAL_BACKOFF;
+    private long _lMaxBackoff = DEFAULT_MAX_BACKOFF;
+    private boolean _bHedging;
+    private double _dHedgingBudget = DEFAULT_HEDGING_BUDGET;
+    private double _dHedgingTokens;
+    private Executor _executor;
+
+    /** number of calls currently being retried */
+    private final AtomicInteger _nRetryingCalls = new AtomicInteger( );
+
+    private final LongAdder _retries = new LongAdder( );
+    private final LongAdder _hedges = new LongAdder( );
+
+    /**
+     * Simple Constructor
+     */
+    public RetryTransportProvider( )
+    {
+        super( );
+    }
+
+    /**
+     * Constructor with the decorated IIdentityQualityTransportProvider in parameters
+     *
+     * @param transportProvider
+     *            the decorated IIdentityQualityTransportProvider
+     */
+    public RetryTransportProvider( final IIdentityQualityTransportProvider transportProvider )
+    {
+        super( transportProvider );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    protected <R> R invoke( final TransportOperation operation, final String strClientCode, final ITransportCall<R> call ) throws IdentityStoreException
+    {
+        if ( !operation.isSafe( ) )
+        {
+            return call.call( );
+        }
+
+        final LatencyWindow latencies = _mapLatencies.computeIfAbsent( operation, o -> new LatencyWindow( ) );
+        final ITransportCall<R> timedCall = ( ) -> {
+            final long lStart = System.nanoTime( );
+            final R response = call.call( );
+            latencies.add( System.nanoTime( ) - lStart );
+            return response;
+        };
+
+        if ( _bHedging )
+        {
+            depositHedgingToken( );
+        }
+
+        int nAttempt = 0;
+        try
+        {
+            while ( true )
+            {
+                try
+                {
+                    // the retries are never hedged
+                    return _bHedging && nAttempt == 0 ? hedge( timedCall, latencies.getPercentile( HEDGING_PERCENTILE ) ) : timedCall.call( );
+                }
+                catch( IdentityStoreException | RuntimeException e )
+                {
+                    if ( nAttempt >= _nMaxRetries || !TransportFailures.isTransient( e ) )
+                    {
+                        throw e;
+                    }
+                    if ( nAttempt == 0 )
+                    {
+                        _nRetryingCalls.incrementAndGet( );
+                    }
+                    backoff( nAttempt++, e );
+                    _retries.increment( );
+                }
+            }
+        }
+        finally
+        {
+            if ( nAttempt > 0 )
+            {
+                _nRetryingCalls.decrementAndGet( );
+            }
+        }
+    }
+
+    /**
+     * Sends the call from the current thread, and, if it is not answered within the hedging delay, sends it a second time from the executor, unless the
+     * budget is spent or calls are being retried. If the second call succeeds first, the first one is interrupted and the second response is used. The
+     * current thread never waits for a task of the executor, which it may belong to.
+     * 
+     * @param call
+     *            the call
+     * @param lDelay
+     *            the hedging delay, in nanoseconds, negative if not enough latencies are known yet
+     * @return the first response
+     * @throws IdentityStoreException
+     *             the failure of the first call, if the second one did not succeed
+     */
+    private <R> R hedge( final ITransportCall<R> call, final long lDelay ) throws IdentityStoreException
+    {
+        if ( lDelay < 0 )
+        {
+            return call.call( );
+        }
+
+        final HedgedCall<R> hedgedCall = new HedgedCall<>( call, Thread.currentThread( ) );
+        final ScheduledFuture<?> timer = getTimer( ).schedule( hedgedCall::send, lDelay, TimeUnit.NANOSECONDS );
+        R response = null;
+        Exception failure = null;
+        try
+        {
+            response = call.call( );
+        }
+        catch( IdentityStoreException | RuntimeException e )
+        {
+            failure = e;
+        }
+        finally
+        {
+            timer.cancel( false );
+            hedgedCall.finish( );
+        }
+
+        if ( failure == null )
+        {
+            return response;
+        }
+        if ( hedgedCall._bSucceeded )
+        {
+            return hedgedCall._response;
+        }
+        if ( failure instanceof IdentityStoreException )
+        {
+            throw (IdentityStoreException) failure;
+        }
+        throw (RuntimeException) failure;
+    }
+
+    /**
+     * Earns the share of a hedged call given by a call
+     */
+    private synchronized void depositHedgingToken( )
+    {
+        _dHedgingTokens = Math.min( HEDGING_BUDGET_BURST, _dHedgingTokens + _dHedgingBudget );
+    }
+
+    /**
+     * Spends a hedged call from the budget
+     * 
+     * @return true if the budget allows a hedged call
+     */
+    private synchronized boolean withdrawHedgingToken( )
+    {
+        if ( _dHedgingTokens < 1 )
+        {
+            return false;
+        }
+        _dHedgingTokens--;
+        return true;
+    }
+
+    /**
+     * Waits before a retry : a random delay up to the exponential backoff (full jitter), so that the clients failing together don't retry together
+     * 
+     * @param nAttempt
+     *            the number of the failed attempt, from 0
+     * @param failure
+     *            the failure
+     * @throws IdentityStoreException
+     *             the failure, if interrupted
+     */
+    private void backoff( final int nAttempt, final Exception failure ) throws IdentityStoreException
+    {
+        final long lBackoff = Math.min( _lMaxBackoff, _lInitialBackoff << Math.min( nAttempt, 30 ) );
+        try
+        {
+            Thread.sleep( ThreadLocalRandom.current( ).nextLong( lBackoff + 1 ) );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            throw new IdentityStoreException( "LibraryIdentityQuality - Interrupted before retrying : " + failure.getMessage( ), failure );
+        }
+    }
+
+    /**
+     * Sets the number of retries of a call failing with a transient failure
+     * 
+     * @param nMaxRetries
+     *            the number of retries, 0 to never retry
+     */
+    public void setMaxRetries( final int nMaxRetries )
+    {
+        _nMaxRetries = nMaxRetries;
+    }
+
+    /**
+     * Sets the maximum delay before the first retry, doubled at each next retry
+     * 
+     * @param lInitialBackoff
+     *            the delay, in milliseconds
+     */
+    public void setInitialBackoff( final long lInitialBackoff )
+    {
+        _lInitialBackoff = lInitialBackoff;
+    }
+
+    /**
+     * Sets the maximum delay before a retry
+     * 
+     * @param lMaxBackoff
+     *            the delay, in milliseconds
+     */
+    public void setMaxBackoff( final long lMaxBackoff )
+    {
+        _lMaxBackoff = lMaxBackoff;
+    }
+
+    /**
+     * Enables hedging. The first call is made by the calling thread, and the hedged one by the executor.
+     * 
+     * @param bHedging
+     *            true to hedge the calls, false (default) otherwise
+     */
+    public void setHedging( final boolean bHedging )
+    {
+        _bHedging = bHedging;
+    }
+
+    /**
+     * Sets the budget of the hedged calls
+     * 
+     * @param dHedgingBudget
+     *            the maximum ratio of hedged calls to calls, 0.05 by default
+     */
+    public void setHedgingBudget( final double dHedgingBudget )
+    {
+        _dHedgingBudget = dHedgingBudget;
+    }
+
+    /**
+     * setter of executor parameter, used for the hedged calls. If no executor is set, the one of {@link IdentityQualityAsyncService} is used.
+     *
+     * @param executor
+     *            the executor
+     */
+    public void setExecutor( final Executor executor )
+    {
+        _executor = executor;
+    }
+
+    /**
+     * @return the number of retries
+     */
+    public long getRetryCount( )
+    {
+        return _retries.sum( );
+    }
+
+    /**
+     * @return the number of hedged calls
+     */
+    public long getHedgeCount( )
+    {
+        return _hedges.sum( );
+    }
+
+    private Executor getExecutor( )
+    {
+        return _executor != null ? _executor : IdentityQualityAsyncService.getDefaultExecutor( );
+    }
+
+    /**
+     * @return the timer sending the hedged calls, created on first use
+     */
+    private static synchronized ScheduledExecutorService getTimer( )
+    {
+        if ( _timer == null )
+        {
+            _timer = Executors.newSingleThreadScheduledExecutor( new DaemonThreadFactory( TIMER_THREAD_NAME_PREFIX ) );
+        }
+        return _timer;
+    }
+
+    /**
+     * Second call of a hedged call, sent by the timer, and interrupting the first call if it succeeds first
+     */
+    private final class HedgedCall<R>
+    {
+        private final ITransportCall<R> _call;
+        private final Thread _caller;
+        private boolean _bFirstCallDone;
+        private boolean _bCallerInterrupted;
+        private volatile boolean _bSucceeded;
+        private volatile R _response;
+
+        HedgedCall( final ITransportCall<R> call, final Thread caller )
+        {
+            _call = call;
+            _caller = caller;
+        }
+
+        /**
+         * Sends the second call to the executor, if the budget allows it
+         */
+        void send( )
+        {
+            synchronized( this )
+            {
+                if ( _bFirstCallDone )
+                {
+                    return;
+                }
+            }
+            if ( _nRetryingCalls.get( ) > 0 || !withdrawHedgingToken( ) )
+            {
+                return;
+            }
+            try
+            {
+                getExecutor( ).execute( this::run );
+                _hedges.increment( );
+            }
+            catch( RejectedExecutionException e )
+            {
+                // the first call goes on alone
+            }
+        }
+
+        /**
+         * Makes the second call, and interrupts the first one if it is still in progress
+         */
+        private void run( )
+        {
+            final R response;
+            try
+            {
+                response = _call.call( );
+            }
+            catch( IdentityStoreException | RuntimeException e )
+            {
+                // the outcome of the first call is used
+                return;
+            }
+            synchronized( this )
+            {
+                if ( _bFirstCallDone )
+                {
+                    return;
+                }
+                _response = response;
+                _bSucceeded = true;
+                _bCallerInterrupted = true;
+                _caller.interrupt( );
+            }
+        }
+
+        /**
+         * Ends the first call, in its thread : the second call no longer interrupts it, and its interruption by the second call is cleared
+         */
+        synchronized void finish( )
+        {
+            _bFirstCallDone = true;
+            if ( _bCallerInterrupted )
+            {
+                Thread.interrupted( );
+            }
+        }
+    }
+
+    /**
+     * Ring of the last latencies of an operation
+     */
+    private static final class LatencyWindow
+    {
+        private final long [ ] _latencies = new long [ LATENCY_WINDOW_SIZE];
+        private int _nIndex;
+        private int _nCount;
+
+        synchronized void add( final long lLatency )
+        {
+            _latencies [_nIndex] = lLatency;
+            _nIndex = ( _nIndex + 1 ) % _latencies.length;
+            _nCount = Math.min( _nCount + 1, _latencies.length );
+        }
+
+        /**
+         * @param dPercentile
+         *            the percentile, between 0 and 1
+         * @return the latency at the percentile, in nanoseconds, or -1 if not enough latencies are known
+         */
+        long getPercentile( final double dPercentile )
+        {
+            final long [ ] latencies;
+            synchronized( this )
+            {
+                if ( _nCount < LATENCY_MINIMUM_SAMPLES )
+                {
+                    return -1;
+                }
+                latencies = Arrays.copyOf( _latencies, _nCount );
+            }
+            Arrays.sort( latencies );
+            return latencies [Math.min( latencies.length - 1, (int) ( dPercentile * latencies.length ) )];
+        }
+    }
+}
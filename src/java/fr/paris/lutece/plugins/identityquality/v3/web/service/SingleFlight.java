@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.UnaryOperator;
+
+import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+
+/**
+ * Executes at most one call per key at a time : callers asking for a key whose call is in flight wait for it and share its result (or its failure) instead of
+ * executing their own.
+ *
+ * @param <K>
+ *            the type of the keys
+ * @param <V>
+ *            the type of the results
+ */
+public class SingleFlight<K, V>
+{
+    private final ConcurrentMap<K, CompletableFuture<V>> _mapInFlight = new ConcurrentHashMap<>( );
+
+    /**
+     * Executes the call in the current thread, or waits for the call in flight for the same key
+     * 
+     * @param key
+     *            the key
+     * @param call
+     *            the call
+     * @return the result of the call
+     * @throws IdentityStoreException
+     */
+    public V execute( final K key, final ITransportCall<V> call ) throws IdentityStoreException
+    {
+        return execute( key, call, UnaryOperator.identity( ) );
+    }
+
+    /**
+     * Executes the call in the current thread, or waits for the call in flight for the same key and gives its result through a function, such as a copy, so
+     * that the callers don't share the same instance
+     * 
+     * @param key
+     *            the key
+     * @param call
+     *            the call
+     * @param share
+     *            gives the result of the call in flight to a caller which joined it
+     * @return the result of the call
+     * @throws IdentityStoreException
+     */
+    public V execute( final K key, final ITransportCall<V> call, final UnaryOperator<V> share ) throws IdentityStoreException
+    {
+        final CompletableFuture<V> future = new CompletableFuture<>( );
+        final CompletableFuture<V> inFlight = _mapInFlight.putIfAbsent( key, future );
+        if ( inFlight != null )
+        {
+            return share.apply( await( inFlight ) );
+        }
+
+        run( key, future, call );
+        return await( future );
+    }
+
+    /**
+     * Submits the call to the executor, unless a call is already in flight for the same key
+     * 
+     * @param key
+     *            the key
+     * @param call
+     *            the call
+     * @param executor
+     *            the executor
+     * @return the future result of the call, new or in flight
+     */
+    public CompletableFuture<V> submit( final K key, final ITransportCall<V> call, final Executor executor )
+    {
+        final CompletableFuture<V> future = new CompletableFuture<>( );
+        final CompletableFuture<V> inFlight = _mapInFlight.putIfAbsent( key, future );
+        if ( inFlight != null )
+        {
+            return inFlight;
+        }
+
+        try
+        {
+            executor.execute( ( ) -> run( key, future, call ) );
+        }
+        catch( RejectedExecutionException e )
+        {
+            _mapInFlight.remove( key, future );
+            future.completeExceptionally( e );
+        }
+        return future;
+    }
+
+    /**
+     * @param key
+     *            the key
+     * @return true if a call is in flight for the key
+     */
+    public boolean isInFlight( final K key )
+    {
+        return _mapInFlight.containsKey( key );
+    }
+
+    private void run( final K key, final CompletableFuture<V> future, final ITransportCall<V> call )
+    {
+        try
+        {
+            future.complete( call.call( ) );
+        }
+        catch( IdentityStoreException | RuntimeException | Error e )
+        {
+            future.completeExceptionally( e );
+        }
+        finally
+        {
+            _mapInFlight.remove( key, future );
+        }
+    }
+
+    /**
+     * Waits for a call and returns its result, or throws its exception
+     * 
+     * @param future
+     *            the future result of the call
+     * @return the result
+     * @throws IdentityStoreException
+     */
+    public static <V> V await( final CompletableFuture<V> future ) throws IdentityStoreException
+    {
+        try
+        {
+            return future.get( );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            throw new IdentityStoreException( "LibraryIdentityQuality - Interrupted while waiting for a call", e );
+        }
+        catch( ExecutionException e )
+        {
+            final Throwable cause = e.getCause( );
+            if ( cause instanceof IdentityStoreException )
+            {
+                throw (IdentityStoreException) cause;
+            }
+            if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+            if ( cause instanceof Error )
+            {
+                throw (Error) cause;
+            }
+            throw new IdentityStoreException( "LibraryIdentityQuality - Error during a call", cause );
+        }
+    }
+}
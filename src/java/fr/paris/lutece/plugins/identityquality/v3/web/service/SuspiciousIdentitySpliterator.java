@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.RequestAuthor;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.ResponsePaginationDto;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentityDto;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentitySearchRequest;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentitySearchResponse;
+import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+
+/**
+ * Spliterator over all the pages of a suspicious identity search.<br>
+ * The pages are requested lazily : the first one on the first advance, and the next ones in background, up to the prefetch depth ahead of the page being
+ * consumed. At most the current page and the prefetched ones are held in memory, whatever the number of results.<br>
+ * A failure to fetch a page is thrown as an {@link UncheckedIdentityStoreException} when the page is reached.
+ */
+public class SuspiciousIdentitySpliterator extends Spliterators.AbstractSpliterator<SuspiciousIdentityDto> implements AutoCloseable
+{
+    private final IIdentityQualityTransportProvider _transportProvider;
+    private final SuspiciousIdentitySearchRequest _request;
+    private final String _strClientCode;
+    private final RequestAuthor _author;
+    private final int _nPageSize;
+    private final int _nPrefetchDepth;
+    private final Executor _executor;
+
+    private final Deque<CompletableFuture<SuspiciousIdentitySearchResponse>> _pages = new ArrayDeque<>( );
+    private Iterator<SuspiciousIdentityDto> _currentPage = Collections.emptyIterator( );
+    private int _nNextPage = 1;
+    private int _nTotalPages = -1;
+    private boolean _bClosed;
+
+    /**
+     * Constructor
+     * 
+     * @param transportProvider
+     *            the transport provider
+     * @param request
+     *            the search request, whose pagination is ignored; it is copied, and may be reused by the caller
+     * @param strClientCode
+     *            the client code
+     * @param author
+     *            the author of the request
+     * @param nPageSize
+     *            the size of the requested pages
+     * @param nPrefetchDepth
+     *            the number of pages fetched ahead of the page being consumed, 0 to fetch each page when it is reached
+     * @param executor
+     *            the executor of the prefetches
+     */
+    public SuspiciousIdentitySpliterator( final IIdentityQualityTransportProvider transportProvider, final SuspiciousIdentitySearchRequest request,
+            final String strClientCode, final RequestAuthor author, final int nPageSize, final int nPrefetchDepth, final Executor executor )
+    {
+        super( Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL );
+        if ( nPageSize < 1 || nPrefetchDepth < 0 )
+        {
+            throw new IllegalArgumentException( "The page size must be at least 1, and the prefetch depth positive" );
+        }
+        _transportProvider = transportProvider;
+        _request = copy( request, null, null );
+        _strClientCode = strClientCode;
+        _author = author;
+        _nPageSize = nPageSize;
+        _nPrefetchDepth = nPrefetchDepth;
+        _executor = executor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean tryAdvance( final Consumer<? super SuspiciousIdentityDto> action )
+    {
+        while ( !_currentPage.hasNext( ) )
+        {
+            if ( !nextPage( ) )
+            {
+                return false;
+            }
+        }
+        action.accept( _currentPage.next( ) );
+        return true;
+    }
+
+    /**
+     * Cancels the prefetches in flight
+     */
+    @Override
+    public synchronized void close( )
+    {
+        _bClosed = true;
+        for ( final CompletableFuture<SuspiciousIdentitySearchResponse> page : _pages )
+        {
+            page.cancel( false );
+        }
+        _pages.clear( );
+        _currentPage = Collections.emptyIterator( );
+    }
+
+    /**
+     * Moves to the next page, waiting for it if it is still being fetched
+     * 
+     * @return false if there is no more page
+     */
+    private synchronized boolean nextPage( )
+    {
+        if ( _bClosed )
+        {
+            return false;
+        }
+        if ( _pages.isEmpty( ) )
+        {
+            if ( _nTotalPages >= 0 && _nNextPage > _nTotalPages )
+            {
+                return false;
+            }
+            // the first page is fetched in the current thread : nothing can be prefetched before the number of pages is known
+            _pages.add( fetch( _nNextPage++, false ) );
+        }
+
+        final SuspiciousIdentitySearchResponse response;
+        try
+        {
+            response = SingleFlight.await( _pages.poll( ) );
+        }
+        catch( IdentityStoreException e )
+        {
+            close( );
+            throw new UncheckedIdentityStoreException( e );
+        }
+
+        if ( response == null || response.getSuspiciousIdentities( ) == null )
+        {
+            // no (more) result
+            close( );
+            return false;
+        }
+
+        final ResponsePaginationDto pagination = response.getPagination( );
+        _nTotalPages = pagination != null && pagination.getTotalPages( ) != null ? pagination.getTotalPages( ) : 0;
+        _currentPage = response.getSuspiciousIdentities( ).iterator( );
+
+        while ( _pages.size( ) < _nPrefetchDepth && _nNextPage <= _nTotalPages )
+        {
+            _pages.add( fetch( _nNextPage++, true ) );
+        }
+        return true;
+    }
+
+    /**
+     * Fetches a page
+     * 
+     * @param nPage
+     *            the page number, from 1
+     * @param bAsync
+     *            true to fetch it in background
+     * @return the future page
+     */
+    private CompletableFuture<SuspiciousIdentitySearchResponse> fetch( final int nPage, final boolean bAsync )
+    {
+        final SuspiciousIdentitySearchRequest request = copy( _request, nPage, _nPageSize );
+        final ITransportCall<SuspiciousIdentitySearchResponse> call = ( ) -> _transportProvider.getSuspiciousIdentities( request, _strClientCode, _author );
+
+        if ( bAsync )
+        {
+            return IdentityQualityAsyncService.supply( call, _executor );
+        }
+
+        final CompletableFuture<SuspiciousIdentitySearchResponse> page = new CompletableFuture<>( );
+        try
+        {
+            page.complete( call.call( ) );
+        }
+        catch( IdentityStoreException | RuntimeException e )
+        {
+            page.completeExceptionally( e );
+        }
+        return page;
+    }
+
+    /**
+     * Copies a search request, so that each page has its own
+     * 
+     * @param request
+     *            the request
+     * @param nPage
+     *            the page number
+     * @param nSize
+     *            the page size
+     * @return the copy
+     */
+    private static SuspiciousIdentitySearchRequest copy( final SuspiciousIdentitySearchRequest request, final Integer nPage, final Integer nSize )
+    {
+        final SuspiciousIdentitySearchRequest copy = new SuspiciousIdentitySearchRequest( );
+        copy.setRuleCode( request.getRuleCode( ) );
+        copy.setAttributes( request.getAttributes( ) );
+        copy.setMax( request.getMax( ) );
+        copy.setRulePriority( request.getRulePriority( ) );
+        copy.setPage( nPage );
+        copy.setSize( nSize );
+        return copy;
+    }
+}
@@ -0,0 +1,434 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.common.RequestAuthor;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentityChangeRequest;
+import fr.paris.lutece.plugins.identitystore.v3.web.rs.dto.crud.SuspiciousIdentityChangeResponse;
+import fr.paris.lutece.plugins.identitystore.web.exception.IdentityStoreException;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+/**
+ * Pipeline submitting suspicious identities in mass through any {@link IIdentityQualityTransportProvider}.<br>
+ * The submitted requests wait in a bounded queue, and are sent by a fixed number of workers. When the queue is full, {@link #submit} either blocks until room
+ * is made, or rejects the request, according to the overflow policy. Transient failures (I/O errors, HTTP 5xx) are retried with an exponential backoff. The
+ * outcome of each request is given to its handler, including the requests dropped by {@link #close}.
+ */
+public class SuspiciousIdentitySubmissionPipeline implements AutoCloseable
+{
+    /**
+     * Behaviour of {@link SuspiciousIdentitySubmissionPipeline#submit} when the queue is full
+     */
+    public enum OverflowPolicy
+    {
+        /** the caller waits until room is made */
+        BLOCK,
+        /** the request is rejected */
+        REJECT
+    }
+
+    private static final int DEFAULT_WORKERS = 4;
+    private static final int DEFAULT_QUEUE_CAPACITY = 1000;
+    private static final int DEFAULT_MAX_RETRIES = 3;
+    private static final long DEFAULT_RETRY_DELAY = 200;
+    private static final String THREAD_NAME_PREFIX = "identityquality-submission-";
+
+    private final IIdentityQualityTransportProvider _transportProvider;
+    private final OverflowPolicy _overflowPolicy;
+    private final ExecutorService _workers;
+    /** permits of the requests queued or in progress */
+    private final Semaphore _slots;
+    private final long _lStartTime = System.nanoTime( );
+
+    private int _nMaxRetries = DEFAULT_MAX_RETRIES;
+    private long _lRetryDelay = DEFAULT_RETRY_DELAY;
+
+    private final LongAdder _submitted = new LongAdder( );
+    private final LongAdder _rejected = new LongAdder( );
+    private final LongAdder _succeeded = new LongAdder( );
+    private final LongAdder _failed = new LongAdder( );
+    private final LongAdder _retried = new LongAdder( );
+
+    /**
+     * Constructor with the default settings : 4 workers, a queue of 1000 requests, blocking when full
+     * 
+     * @param transportProvider
+     *            the transport provider
+     */
+    public SuspiciousIdentitySubmissionPipeline( final IIdentityQualityTransportProvider transportProvider )
+    {
+        this( transportProvider, DEFAULT_WORKERS, DEFAULT_QUEUE_CAPACITY, OverflowPolicy.BLOCK );
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param transportProvider
+     *            the transport provider
+     * @param nWorkers
+     *            the number of requests sent concurrently
+     * @param nQueueCapacity
+     *            the number of requests waiting for a worker
+     * @param overflowPolicy
+     *            the behaviour of {@link #submit} when the queue is full
+     */
+    public SuspiciousIdentitySubmissionPipeline( final IIdentityQualityTransportProvider transportProvider, final int nWorkers, final int nQueueCapacity,
+            final OverflowPolicy overflowPolicy )
+    {
+        if ( nWorkers < 1 || nQueueCapacity < 0 )
+        {
+            throw new IllegalArgumentException( "The number of workers must be at least 1, and the queue capacity positive" );
+        }
+        _transportProvider = transportProvider;
+        _overflowPolicy = overflowPolicy;
+        _workers = Executors.newFixedThreadPool( nWorkers, new DaemonThreadFactory( THREAD_NAME_PREFIX ) );
+        _slots = new Semaphore( nWorkers + nQueueCapacity );
+    }
+
+    /**
+     * Submits a suspicious identity
+     * 
+     * @param request
+     *            the request
+     * @param strClientCode
+     *            the client code
+     * @param author
+     *            the author of the request
+     * @param handler
+     *            receives the response, or the failure once the retries are exhausted, from a worker thread
+     * @return true if the request is queued, false if it is rejected because the queue is full (REJECT policy) or the pipeline is closed
+     * @throws IdentityStoreException
+     *             if the caller is interrupted while waiting for room in the queue (BLOCK policy)
+     */
+    public boolean submit( final SuspiciousIdentityChangeRequest request, final String strClientCode, final RequestAuthor author,
+            final IBatchResultHandler<SuspiciousIdentityChangeRequest, SuspiciousIdentityChangeResponse> handler ) throws IdentityStoreException
+    {
+        if ( _workers.isShutdown( ) || !acquireSlot( ) )
+        {
+            _rejected.increment( );
+            return false;
+        }
+
+        _submitted.increment( );
+        try
+        {
+            _workers.execute( new Submission( request, strClientCode, author, handler ) );
+        }
+        catch( RejectedExecutionException e )
+        {
+            _submitted.decrement( );
+            _slots.release( );
+            _rejected.increment( );
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting requests, and waits for the queued ones to be sent
+     * 
+     * @param lTimeout
+     *            the maximum time to wait, in milliseconds
+     * @return true if all the queued requests were sent
+     * @throws IdentityStoreException
+     *             if interrupted while waiting
+     */
+    public boolean shutdown( final long lTimeout ) throws IdentityStoreException
+    {
+        _workers.shutdown( );
+        try
+        {
+            return _workers.awaitTermination( lTimeout, TimeUnit.MILLISECONDS );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            throw new IdentityStoreException( "LibraryIdentityQuality - Interrupted while waiting for the submission pipeline", e );
+        }
+    }
+
+    /**
+     * Stops immediately : the requests in progress are interrupted, and the queued requests are dropped. Each dropped request is given to its handler as a
+     * failure, and counted as failed.
+     */
+    @Override
+    public void close( )
+    {
+        for ( final Runnable dropped : _workers.shutdownNow( ) )
+        {
+            if ( dropped instanceof Submission )
+            {
+                ( (Submission) dropped ).drop( );
+            }
+        }
+    }
+
+    /**
+     * Sets the number of retries of a request failing with a transient failure
+     * 
+     * @param nMaxRetries
+     *            the number of retries, 0 to never retry
+     */
+    public void setMaxRetries( final int nMaxRetries )
+    {
+        _nMaxRetries = nMaxRetries;
+    }
+
+    /**
+     * Sets the delay before the first retry, doubled at each next retry
+     * 
+     * @param lRetryDelay
+     *            the delay, in milliseconds
+     */
+    public void setRetryDelay( final long lRetryDelay )
+    {
+        _lRetryDelay = lRetryDelay;
+    }
+
+    /**
+     * @return the number of accepted requests
+     */
+    public long getSubmittedCount( )
+    {
+        return _submitted.sum( );
+    }
+
+    /**
+     * @return the number of rejected requests
+     */
+    public long getRejectedCount( )
+    {
+        return _rejected.sum( );
+    }
+
+    /**
+     * @return the number of requests sent successfully
+     */
+    public long getSucceededCount( )
+    {
+        return _succeeded.sum( );
+    }
+
+    /**
+     * @return the number of requests failed after their retries
+     */
+    public long getFailedCount( )
+    {
+        return _failed.sum( );
+    }
+
+    /**
+     * @return the number of retries
+     */
+    public long getRetryCount( )
+    {
+        return _retried.sum( );
+    }
+
+    /**
+     * @return the number of requests queued or in progress
+     */
+    public long getPendingCount( )
+    {
+        return getSubmittedCount( ) - getSucceededCount( ) - getFailedCount( );
+    }
+
+    /**
+     * @return the number of requests completed (sent successfully or failed) per second, since the creation of the pipeline
+     */
+    public double getThroughput( )
+    {
+        final double dSeconds = ( System.nanoTime( ) - _lStartTime ) / (double) TimeUnit.SECONDS.toNanos( 1 );
+        return dSeconds <= 0 ? 0 : ( getSucceededCount( ) + getFailedCount( ) ) / dSeconds;
+    }
+
+    /**
+     * Takes a slot for a new request, according to the overflow policy
+     * 
+     * @return true if a slot is taken
+     * @throws IdentityStoreException
+     */
+    private boolean acquireSlot( ) throws IdentityStoreException
+    {
+        if ( _overflowPolicy == OverflowPolicy.REJECT )
+        {
+            return _slots.tryAcquire( );
+        }
+        try
+        {
+            _slots.acquire( );
+            return true;
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            throw new IdentityStoreException( "LibraryIdentityQuality - Interrupted while waiting for room in the submission pipeline", e );
+        }
+    }
+
+    /**
+     * Queued request
+     */
+    private final class Submission implements Runnable
+    {
+        private final SuspiciousIdentityChangeRequest _request;
+        private final String _strClientCode;
+        private final RequestAuthor _author;
+        private final IBatchResultHandler<SuspiciousIdentityChangeRequest, SuspiciousIdentityChangeResponse> _handler;
+
+        Submission( final SuspiciousIdentityChangeRequest request, final String strClientCode, final RequestAuthor author,
+                final IBatchResultHandler<SuspiciousIdentityChangeRequest, SuspiciousIdentityChangeResponse> handler )
+        {
+            _request = request;
+            _strClientCode = strClientCode;
+            _author = author;
+            _handler = handler;
+        }
+
+        @Override
+        public void run( )
+        {
+            process( _request, _strClientCode, _author, _handler );
+        }
+
+        /**
+         * Reports the request as failed, because the pipeline is closed before it is sent
+         */
+        void drop( )
+        {
+            _failed.increment( );
+            try
+            {
+                _handler.onFailure( _request, new IdentityStoreException( "LibraryIdentityQuality - Submission pipeline closed before the request was sent" ) );
+            }
+            catch( RuntimeException e )
+            {
+                AppLogService.error( "LibraryIdentityQuality - Error in submission handler : " + e.getMessage( ), e );
+            }
+            finally
+            {
+                _slots.release( );
+            }
+        }
+    }
+
+    /**
+     * Sends a request, retrying it on transient failures, and gives its outcome to its handler
+     */
+    private void process( final SuspiciousIdentityChangeRequest request, final String strClientCode, final RequestAuthor author,
+            final IBatchResultHandler<SuspiciousIdentityChangeRequest, SuspiciousIdentityChangeResponse> handler )
+    {
+        try
+        {
+            final SuspiciousIdentityChangeResponse response;
+            try
+            {
+                response = send( request, strClientCode, author );
+            }
+            catch( IdentityStoreException e )
+            {
+                _failed.increment( );
+                handler.onFailure( request, e );
+                return;
+            }
+            _succeeded.increment( );
+            handler.onResult( request, response );
+        }
+        catch( RuntimeException e )
+        {
+            AppLogService.error( "LibraryIdentityQuality - Error in submission handler : " + e.getMessage( ), e );
+        }
+        finally
+        {
+            _slots.release( );
+        }
+    }
+
+    /**
+     * Sends a request, retrying it on transient failures
+     * 
+     * @return the response
+     * @throws IdentityStoreException
+     *             the last failure
+     */
+    private SuspiciousIdentityChangeResponse send( final SuspiciousIdentityChangeRequest request, final String strClientCode, final RequestAuthor author )
+            throws IdentityStoreException
+    {
+        int nAttempt = 0;
+        while ( true )
+        {
+            try
+            {
+                return _transportProvider.createSuspiciousIdentity( request, strClientCode, author );
+            }
+            catch( IdentityStoreException | RuntimeException e )
+            {
+                if ( nAttempt >= _nMaxRetries || !TransportFailures.isTransient( e ) )
+                {
+                    throw e instanceof IdentityStoreException ? (IdentityStoreException) e
+                            : new IdentityStoreException( "LibraryIdentityQuality - Error creating suspicious identity : " + e.getMessage( ), e );
+                }
+                sleep( _lRetryDelay << nAttempt, e );
+                nAttempt++;
+                _retried.increment( );
+            }
+        }
+    }
+
+    /**
+     * Waits before a retry
+     * 
+     * @throws IdentityStoreException
+     *             the failure to retry, if interrupted
+     */
+    private static void sleep( final long lDelay, final Exception failure ) throws IdentityStoreException
+    {
+        try
+        {
+            Thread.sleep( lDelay );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            throw new IdentityStoreException( "LibraryIdentityQuality - Interrupted before retrying : " + failure.getMessage( ), failure );
+        }
+    }
+}
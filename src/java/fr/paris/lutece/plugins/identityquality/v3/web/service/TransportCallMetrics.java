@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+/**
+ * Measures of one transport call. While a call is measured, the transports of the library report into it, from the thread of the call, the time spent
+ * serializing the request and deserializing the response, and the payload sizes; the rest of the call is accounted as network time.<br>
+ * The deserialization of a streamed response includes the reading of the stream, which overlaps the network.
+ */
+public final class TransportCallMetrics
+{
+    private static final ThreadLocal<TransportCallMetrics> CURRENT = new ThreadLocal<>( );
+
+    private final TransportCallMetrics _previous;
+    private long _lDuration;
+    private boolean _bError;
+    private long _lSerializationTime;
+    private long _lDeserializationTime;
+    private long _lRequestSize;
+    private long _lResponseSize;
+
+    private TransportCallMetrics( final TransportCallMetrics previous )
+    {
+        _previous = previous;
+    }
+
+    /**
+     * Starts measuring a call made from the current thread
+     * 
+     * @return the measures of the call, to be closed once the call is over
+     */
+    public static TransportCallMetrics open( )
+    {
+        final TransportCallMetrics metrics = new TransportCallMetrics( CURRENT.get( ) );
+        CURRENT.set( metrics );
+        return metrics;
+    }
+
+    /**
+     * Stops measuring the call
+     * 
+     * @param lDuration
+     *            the duration of the call, in nanoseconds
+     * @param bError
+     *            true if the call failed
+     */
+    public void close( final long lDuration, final boolean bError )
+    {
+        _lDuration = lDuration;
+        _bError = bError;
+        if ( _previous != null )
+        {
+            CURRENT.set( _previous );
+        }
+        else
+        {
+            CURRENT.remove( );
+        }
+    }
+
+    /**
+     * Reports the serialization of a request body into the call measured in the current thread, if any
+     * 
+     * @param lTime
+     *            the serialization time, in nanoseconds
+     * @param lSize
+     *            the size of the body, in bytes
+     */
+    public static void recordSerialization( final long lTime, final long lSize )
+    {
+        final TransportCallMetrics metrics = CURRENT.get( );
+        if ( metrics != null )
+        {
+            metrics._lSerializationTime += lTime;
+            metrics._lRequestSize += lSize;
+        }
+    }
+
+    /**
+     * Reports the deserialization of a response body into the call measured in the current thread, if any
+     * 
+     * @param lTime
+     *            the deserialization time, in nanoseconds
+     * @param lSize
+     *            the size of the body, in bytes
+     */
+    public static void recordDeserialization( final long lTime, final long lSize )
+    {
+        final TransportCallMetrics metrics = CURRENT.get( );
+        if ( metrics != null )
+        {
+            metrics._lDeserializationTime += lTime;
+            metrics._lResponseSize += lSize;
+        }
+    }
+
+    /**
+     * Reports the serialization of a request body into the call measured in the current thread, if any
+     * 
+     * @param lTime
+     *            the serialization time, in nanoseconds
+     * @param strBody
+     *            the body, sent encoded in UTF-8
+     */
+    public static void recordSerialization( final long lTime, final String strBody )
+    {
+        if ( CURRENT.get( ) != null )
+        {
+            recordSerialization( lTime, utf8Length( strBody ) );
+        }
+    }
+
+    /**
+     * Reports the deserialization of a response body into the call measured in the current thread, if any
+     * 
+     * @param lTime
+     *            the deserialization time, in nanoseconds
+     * @param strBody
+     *            the body, received encoded in UTF-8
+     */
+    public static void recordDeserialization( final long lTime, final String strBody )
+    {
+        if ( CURRENT.get( ) != null )
+        {
+            recordDeserialization( lTime, utf8Length( strBody ) );
+        }
+    }
+
+    /**
+     * Computes the size of a string encoded in UTF-8, without encoding it
+     * 
+     * @param str
+     *            the string
+     * @return the number of bytes
+     */
+    private static long utf8Length( final String str )
+    {
+        long lLength = 0;
+        for ( int i = 0; i < str.length( ); i++ )
+        {
+            final char c = str.charAt( i );
+            if ( c < 0x80 )
+            {
+                lLength++;
+            }
+            else
+                if ( c < 0x800 )
+                {
+                    lLength += 2;
+                }
+                else
+                    if ( Character.isHighSurrogate( c ) && i + 1 < str.length( ) && Character.isLowSurrogate( str.charAt( i + 1 ) ) )
+                    {
+                        // a supplementary character, encoded in 4 bytes
+                        lLength += 4;
+                        i++;
+                    }
+                    else
+                    {
+                        lLength += 3;
+                    }
+        }
+        return lLength;
+    }
+
+    /**
+     * @return the duration of the call, in nanoseconds
+     */
+    public long getDuration( )
+    {
+        return _lDuration;
+    }
+
+    /**
+     * @return true if the call failed
+     */
+    public boolean isError( )
+    {
+        return _bError;
+    }
+
+    /**
+     * @return the time spent serializing the request, in nanoseconds
+     */
+    public long getSerializationTime( )
+    {
+        return _lSerializationTime;
+    }
+
+    /**
+     * @return the time spent deserializing the response, in nanoseconds
+     */
+    public long getDeserializationTime( )
+    {
+        return _lDeserializationTime;
+    }
+
+    /**
+     * @return the rest of the duration of the call, mostly network, in nanoseconds
+     */
+    public long getNetworkTime( )
+    {
+        return Math.max( 0, _lDuration - _lSerializationTime - _lDeserializationTime );
+    }
+
+    /**
+     * @return the size of the request body, in bytes, 0 if unknown
+     */
+    public long getRequestSize( )
+    {
+        return _lRequestSize;
+    }
+
+    /**
+     * @return the size of the response body, in bytes, 0 if unknown
+     */
+    public long getResponseSize( )
+    {
+        return _lResponseSize;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+import java.io.IOException;
+
+import fr.paris.lutece.util.httpaccess.InvalidResponseStatus;
+
+/**
+ * Classification of the failures of the transport providers
+ */
+public final class TransportFailures
+{
+    private static final int HTTP_SERVER_ERROR = 500;
+
+    /**
+     * Private constructor
+     */
+    private TransportFailures( )
+    {
+    }
+
+    /**
+     * Checks whether a failure is transient, so that the call may succeed if it is retried : I/O errors (connection failures, timeouts) and server errors
+     * (HTTP 5xx), found anywhere in the cause chain.
+     * 
+     * @param failure
+     *            the failure
+     * @return true if the failure is transient
+     */
+    public static boolean isTransient( final Throwable failure )
+    {
+        for ( Throwable cause = failure; cause != null; cause = cause.getCause( ) )
+        {
+            if ( cause instanceof IOException )
+            {
+                return true;
+            }
+            if ( cause instanceof InvalidResponseStatus )
+            {
+                return ( (InvalidResponseStatus) cause ).getResponseStatus( ) >= HTTP_SERVER_ERROR;
+            }
+            if ( cause.getCause( ) == cause )
+            {
+                break;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+/**
+ * Snapshot of the metrics of an operation for a client code. Latencies and phase times are in microseconds.
+ */
+public class TransportMetricsSnapshot
+{
+    private final TransportOperation _operation;
+    private final String _strClientCode;
+    private final long _lCallCount;
+    private final long _lErrorCount;
+    private final int _nInFlight;
+    private final double _dMeanLatency;
+    private final long _lP50;
+    private final long _lP99;
+    private final long _lP999;
+    private final double _dMeanSerializationTime;
+    private final double _dMeanNetworkTime;
+    private final double _dMeanDeserializationTime;
+    private final double _dMeanRequestSize;
+    private final double _dMeanResponseSize;
+
+    /**
+     * Constructor
+     */
+    TransportMetricsSnapshot( final TransportOperation operation, final String strClientCode, final long lCallCount, final long lErrorCount,
+            final int nInFlight, final LatencyHistogram latencies, final double dMeanSerializationTime, final double dMeanNetworkTime,
+            final double dMeanDeserializationTime, final double dMeanRequestSize, final double dMeanResponseSize )
+    {
+        _operation = operation;
+        _strClientCode = strClientCode;
+        _lCallCount = lCallCount;
+        _lErrorCount = lErrorCount;
+        _nInFlight = nInFlight;
+        _dMeanLatency = latencies.getMean( );
+        _lP50 = latencies.getPercentile( 0.5 );
+        _lP99 = latencies.getPercentile( 0.99 );
+        _lP999 = latencies.getPercentile( 0.999 );
+        _dMeanSerializationTime = dMeanSerializationTime;
+        _dMeanNetworkTime = dMeanNetworkTime;
+        _dMeanDeserializationTime = dMeanDeserializationTime;
+        _dMeanRequestSize = dMeanRequestSize;
+        _dMeanResponseSize = dMeanResponseSize;
+    }
+
+    /**
+     * @return the operation
+     */
+    public TransportOperation getOperation( )
+    {
+        return _operation;
+    }
+
+    /**
+     * @return the client code
+     */
+    public String getClientCode( )
+    {
+        return _strClientCode;
+    }
+
+    /**
+     * @return the number of completed calls
+     */
+    public long getCallCount( )
+    {
+        return _lCallCount;
+    }
+
+    /**
+     * @return the number of failed calls
+     */
+    public long getErrorCount( )
+    {
+        return _lErrorCount;
+    }
+
+    /**
+     * @return the ratio of failed calls, between 0 and 1
+     */
+    public double getErrorRate( )
+    {
+        return _lCallCount == 0 ? 0 : (double) _lErrorCount / _lCallCount;
+    }
+
+    /**
+     * @return the number of calls in flight
+     */
+    public int getInFlight( )
+    {
+        return _nInFlight;
+    }
+
+    /**
+     * @return the mean latency
+     */
+    public double getMeanLatency( )
+    {
+        return _dMeanLatency;
+    }
+
+    /**
+     * @return the median latency
+     */
+    public long getP50( )
+    {
+        return _lP50;
+    }
+
+    /**
+     * @return the 99th percentile of the latencies
+     */
+    public long getP99( )
+    {
+        return _lP99;
+    }
+
+    /**
+     * @return the 99.9th percentile of the latencies
+     */
+    public long getP999( )
+    {
+        return _lP999;
+    }
+
+    /**
+     * @return the mean time spent serializing the requests
+     */
+    public double getMeanSerializationTime( )
+    {
+        return _dMeanSerializationTime;
+    }
+
+    /**
+     * @return the mean time spent in the network
+     */
+    public double getMeanNetworkTime( )
+    {
+        return _dMeanNetworkTime;
+    }
+
+    /**
+     * @return the mean time spent deserializing the responses
+     */
+    public double getMeanDeserializationTime( )
+    {
+        return _dMeanDeserializationTime;
+    }
+
+    /**
+     * @return the mean size of the request bodies
+     */
+    public double getMeanRequestSize( )
+    {
+        return _dMeanRequestSize;
+    }
+
+    /**
+     * @return the mean size of the response bodies
+     */
+    public double getMeanResponseSize( )
+    {
+        return _dMeanResponseSize;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+/**
+ * Operations of {@link IIdentityQualityTransportProvider}
+ */
+public enum TransportOperation
+{
+    CREATE_SUSPICIOUS_IDENTITY( false, false ),
+    GET_ALL_DUPLICATE_RULES( true, true ),
+    GET_SUSPICIOUS_IDENTITIES( true, true ),
+    GET_DUPLICATES( true, true ),
+    SEARCH_DUPLICATES( true, false ),
+    EXCLUDE_IDENTITIES( false, true ),
+    CANCEL_IDENTITIES_EXCLUSION( false, true ),
+    LOCK( false, true );
+
+    private final boolean _bSafe;
+    private final boolean _bInteractive;
+
+    TransportOperation( final boolean bSafe, final boolean bInteractive )
+    {
+        _bSafe = bSafe;
+        _bInteractive = bInteractive;
+    }
+
+    /**
+     * @return true if the operation only reads (GET or search POST), so that it can be sent again without side effect
+     */
+    public boolean isSafe( )
+    {
+        return _bSafe;
+    }
+
+    /**
+     * @return true if the operation is usually made while a user waits for it, as opposed to the bulk operations (mass reporting, searches)
+     */
+    public boolean isInteractive( )
+    {
+        return _bInteractive;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2002-2024, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.identityquality.v3.web.service;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+/**
+ * Executor running each task on its own virtual thread (Java 21), with a cap on the number of tasks running at the same time so that the identity store cannot
+ * be flooded. Tasks over the cap wait for a permit on their virtual thread, which does not hold any platform thread. A task whose wait is interrupted is
+ * not run : it is cancelled if it is a {@link Future}, as the tasks of {@link IdentityQualityAsyncService} are, so that its callers are notified.<br>
+ * On JVMs without virtual threads, tasks are run by a pool of as many platform threads as the cap.<br>
+ * Meant to be given to {@link IdentityQualityAsyncService#setExecutor(Executor)}, so that the blocking transports are called from virtual threads.
+ */
+public class VirtualThreadExecutor implements Executor
+{
+    /** default maximum number of tasks running at the same time */
+    private static final int DEFAULT_MAX_CONCURRENT_TASKS = 50;
+    private static final String METHOD_NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = "newVirtualThreadPerTaskExecutor";
+    private static final String THREAD_NAME_PREFIX = "identityquality-call-";
+
+    private final int _nMaxConcurrentTasks;
+    private final Semaphore _semaphore;
+    private final ExecutorService _executor;
+    private final boolean _bVirtual;
+
+    /**
+     * Simple Constructor, with a cap of {@value #DEFAULT_MAX_CONCURRENT_TASKS} tasks
+     */
+    public VirtualThreadExecutor( )
+    {
+        this( DEFAULT_MAX_CONCURRENT_TASKS );
+    }
+
+    /**
+     * Constructor with the maximum number of tasks running at the same time
+     * 
+     * @param nMaxConcurrentTasks
+     *            the maximum number of tasks running at the same time
+     */
+    public VirtualThreadExecutor( final int nMaxConcurrentTasks )
+    {
+        _nMaxConcurrentTasks = nMaxConcurrentTasks;
+        _semaphore = new Semaphore( nMaxConcurrentTasks );
+
+        ExecutorService executor = newVirtualThreadPerTaskExecutor( );
+        _bVirtual = executor != null;
+        if ( executor == null )
+        {
+            AppLogService.info( "LibraryIdentityQuality - virtual threads are not available, using a pool of " + nMaxConcurrentTasks + " platform threads" );
+            executor = Executors.newFixedThreadPool( nMaxConcurrentTasks, new DaemonThreadFactory( THREAD_NAME_PREFIX ) );
+        }
+        _executor = executor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute( final Runnable task )
+    {
+        if ( !_bVirtual )
+        {
+            // the size of the pool is the cap
+            _executor.execute( task );
+            return;
+        }
+
+        _executor.execute( ( ) -> {
+            try
+            {
+                _semaphore.acquire( );
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread( ).interrupt( );
+                reject( task );
+                return;
+            }
+            try
+            {
+                task.run( );
+            }
+            finally
+            {
+                _semaphore.release( );
+            }
+        } );
+    }
+
+    /**
+     * Rejects a task which will not be run
+     * 
+     * @param task
+     *            the task
+     */
+    private static void reject( final Runnable task )
+    {
+        if ( task instanceof Future )
+        {
+            ( (Future<?>) task ).cancel( false );
+        }
+        else
+        {
+            AppLogService.error( "LibraryIdentityQuality - Task dropped : interrupted while waiting for a permit" );
+        }
+    }
+
+    /**
+     * @return true if the tasks are run on virtual threads, false if the platform threads fallback is used
+     */
+    public boolean isVirtual( )
+    {
+        return _bVirtual;
+    }
+
+    /**
+     * @return the maximum number of tasks running at the same time
+     */
+    public int getMaxConcurrentTasks( )
+    {
+        return _nMaxConcurrentTasks;
+    }
+
+    /**
+     * @return the number of tasks waiting for a permit (always 0 with the platform threads fallback)
+     */
+    public int getQueueLength( )
+    {
+        return _semaphore.getQueueLength( );
+    }
+
+    /**
+     * Stops accepting tasks. Tasks already submitted are still run.
+     */
+    public void shutdown( )
+    {
+        _executor.shutdown( );
+    }
+
+    /**
+     * Creates a virtual thread per task executor, if the JVM supports it
+     * 
+     * @return the executor, or null if virtual threads are not available
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor( )
+    {
+        try
+        {
+            return (ExecutorService) Executors.class.getMethod( METHOD_NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR ).invoke( null );
+        }
+        catch( ReflectiveOperationException | RuntimeException e )
+        {
+            return null;
+        }
+    }
+}